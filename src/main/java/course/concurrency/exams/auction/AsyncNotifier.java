@@ -0,0 +1,99 @@
+package course.concurrency.exams.auction;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Notifier which models the delivery latency without occupying a thread per message.
+ * The latency is the same for every message, so messages become due in the order they were sent
+ * and a plain FIFO queue drained by a single timer thread is enough.
+ */
+public class AsyncNotifier extends Notifier {
+
+    private static final long DEFAULT_LATENCY_MILLIS = 2000;
+    private static final long DEFAULT_TICK_MILLIS = 10;
+
+    private final long latencyNanos;
+    private final Queue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    public AsyncNotifier() {
+        this(DEFAULT_LATENCY_MILLIS, DEFAULT_TICK_MILLIS);
+    }
+
+    public AsyncNotifier(long latencyMillis, long tickMillis) {
+        this(Executors.newSingleThreadScheduledExecutor(), latencyMillis, tickMillis);
+    }
+
+    private AsyncNotifier(ScheduledExecutorService timer, long latencyMillis, long tickMillis) {
+        super(timer);
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        timer.scheduleWithFixedDelay(this::deliverDue, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Non-blocking, O(1): the message is only put into the delivery queue
+     */
+    @Override
+    public void sendOutdatedMessage(Bid bid) {
+        if (bid.equals(Auction.INITIAL_BID)) {
+            return;
+        }
+        enqueue(bid, null);
+    }
+
+    /**
+     * Same as {@link #sendOutdatedMessage(Bid)} but lets the caller observe the delivery
+     *
+     * @return future completed with the bid when the message is delivered
+     */
+    public CompletableFuture<Bid> send(Bid bid) {
+        CompletableFuture<Bid> result = new CompletableFuture<>();
+        enqueue(bid, result);
+        return result;
+    }
+
+    private void enqueue(Bid bid, CompletableFuture<Bid> result) {
+        sent.increment();
+        deliveries.offer(new Delivery(bid, System.nanoTime() + latencyNanos, result));
+    }
+
+    private void deliverDue() {
+        long now = System.nanoTime();
+        Delivery delivery;
+        while ((delivery = deliveries.peek()) != null && delivery.dueNanos - now <= 0) {
+            deliveries.poll();
+            delivered.increment();
+            if (delivery.result != null) {
+                delivery.result.complete(delivery.bid);
+            }
+        }
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    private static final class Delivery {
+        final Bid bid;
+        final long dueNanos;
+        final CompletableFuture<Bid> result;
+
+        Delivery(Bid bid, long dueNanos, CompletableFuture<Bid> result) {
+            this.bid = bid;
+            this.dueNanos = dueNanos;
+            this.result = result;
+        }
+    }
+}
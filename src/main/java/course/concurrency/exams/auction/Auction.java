@@ -6,5 +6,28 @@ public interface Auction {
 
     boolean propose(Bid bid);
 
+    /**
+     * Primitive variant of {@link #propose(Bid)}. Implementations may override it
+     * to reject losing bids without allocating a {@link Bid}
+     */
+    default boolean propose(long id, long participantId, long price) {
+        return propose(new Bid(id, participantId, price));
+    }
+
+    /**
+     * Proposes the batch as if its bids were proposed one after another without interleaving with other calls.
+     * Implementations may override it to publish the whole batch with a single CAS or lock acquisition
+     *
+     * @return accepted[i] is true if bids[i] became the latest bid,
+     * all the accepted bids but the last one are already outdated by the following ones
+     */
+    default boolean[] propose(Bid[] bids) {
+        boolean[] accepted = new boolean[bids.length];
+        for (int i = 0; i < bids.length; i++) {
+            accepted[i] = propose(bids[i]);
+        }
+        return accepted;
+    }
+
     Bid getLatestBid();
 }
@@ -0,0 +1,190 @@
+package course.concurrency.exams.auction;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Switches between CAS with exponential backoff and a lock depending on the observed contention.
+ * CAS failure rate is measured in the CAS mode and the lock wait time in the lock mode,
+ * every evaluation starts a fresh measurement window for both of them.
+ * Both modes update the same state with CAS, so threads working in different modes
+ * during a switch never break each other. Notification is always sent outside of the lock.
+ */
+public class AuctionAdaptive implements Auction {
+
+    private static final VarHandle LATEST_BID;
+
+    static {
+        try {
+            LATEST_BID = MethodHandles.lookup()
+                    .findVarHandle(AuctionAdaptive.class, "latestBid", Bid.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // mode is reevaluated once per SAMPLE_SIZE operations on average
+    private static final int SAMPLE_SIZE = 1024;
+    private static final double CAS_FAILURE_THRESHOLD = 0.5;
+    private static final long LOCK_WAIT_THRESHOLD_NANOS = 2_000;
+    private static final int MAX_BACKOFF_SPINS = 256;
+
+    private final Notifier notifier;
+    private final int sampleSize;
+    private final double casFailureThreshold;
+    private final long lockWaitThresholdNanos;
+    private final LongSupplier clock;
+
+    public AuctionAdaptive(Notifier notifier) {
+        this(notifier, SAMPLE_SIZE, CAS_FAILURE_THRESHOLD, LOCK_WAIT_THRESHOLD_NANOS, System::nanoTime);
+    }
+
+    /**
+     * @param sampleSize power of two, the mode is reevaluated once per sampleSize operations on average,
+     *                   0 to reevaluate it only by {@link #evaluateMode()}
+     * @param clock      time in nanos to measure the lock wait
+     */
+    AuctionAdaptive(Notifier notifier, int sampleSize, double casFailureThreshold, long lockWaitThresholdNanos,
+                    LongSupplier clock) {
+        this.notifier = notifier;
+        this.sampleSize = sampleSize;
+        this.casFailureThreshold = casFailureThreshold;
+        this.lockWaitThresholdNanos = lockWaitThresholdNanos;
+        this.clock = clock;
+    }
+
+    private volatile Bid latestBid = INITIAL_BID;
+    private volatile boolean lockMode;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicBoolean isEvaluating = new AtomicBoolean();
+
+    private final LongAdder casAttempts = new LongAdder();
+    private final LongAdder casFailures = new LongAdder();
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder modeSwitches = new LongAdder();
+
+    /**
+     * Checks whether the new bid is the highest and updates the latest bid in this case
+     *
+     * @param bid a new bid
+     * @return true if the latest bid was updated, false otherwise
+     */
+    public boolean propose(Bid bid) {
+        if (latestBid.getPrice() >= bid.getPrice())
+            return false;
+        return update(bid);
+    }
+
+    @Override
+    public boolean propose(long id, long participantId, long price) {
+        if (latestBid.getPrice() >= price)
+            return false;
+        return update(new Bid(id, participantId, price));
+    }
+
+    public Bid getLatestBid() {
+        return latestBid;
+    }
+
+    public boolean isLockMode() {
+        return lockMode;
+    }
+
+    /**
+     * @return number of switches between the CAS and the lock modes in both directions
+     */
+    public long getModeSwitchCount() {
+        return modeSwitches.sum();
+    }
+
+    private boolean update(Bid newBid) {
+        Bid outdatedBid = lockMode ? updateWithLock(newBid) : updateWithBackoff(newBid);
+
+        if (sampleSize > 0 && (ThreadLocalRandom.current().nextInt() & (sampleSize - 1)) == 0) {
+            evaluateMode();
+        }
+        if (outdatedBid == null) {
+            return false;
+        }
+        notifier.sendOutdatedMessage(outdatedBid);
+        return true;
+    }
+
+    /**
+     * @return replaced bid or null if the new bid is not the highest
+     */
+    private Bid updateWithBackoff(Bid newBid) {
+        int spins = 1;
+        while (true) {
+            Bid currentBid = latestBid;
+            if (currentBid.getPrice() >= newBid.getPrice())
+                return null;
+            casAttempts.increment();
+            if (LATEST_BID.compareAndSet(this, currentBid, newBid))
+                return currentBid;
+
+            casFailures.increment();
+            for (int i = 0; i < spins; i++) {
+                Thread.onSpinWait();
+            }
+            spins = Math.min(spins << 1, MAX_BACKOFF_SPINS);
+        }
+    }
+
+    private Bid updateWithLock(Bid newBid) {
+        long start = clock.getAsLong();
+        lock.lock();
+        try {
+            lockWaitNanos.add(clock.getAsLong() - start);
+            lockAcquisitions.increment();
+
+            // CAS fails only if a thread still in CAS mode got ahead
+            Bid currentBid;
+            do {
+                currentBid = latestBid;
+                if (currentBid.getPrice() >= newBid.getPrice())
+                    return null;
+            } while (!LATEST_BID.compareAndSet(this, currentBid, newBid));
+            return currentBid;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Switches the mode if the contention measured since the previous evaluation calls for it
+     */
+    void evaluateMode() {
+        if (!isEvaluating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // both windows are reset, otherwise the counts left by the threads which were still
+            // in the other mode during the previous switch could trigger the next one at once
+            long acquisitions = lockAcquisitions.sumThenReset();
+            long waitNanos = lockWaitNanos.sumThenReset();
+            long attempts = casAttempts.sumThenReset();
+            long failures = casFailures.sumThenReset();
+            if (lockMode) {
+                if (acquisitions > 0 && waitNanos / acquisitions < lockWaitThresholdNanos) {
+                    lockMode = false;
+                    modeSwitches.increment();
+                }
+            } else {
+                if (attempts > 0 && (double) failures / attempts > casFailureThreshold) {
+                    lockMode = true;
+                    modeSwitches.increment();
+                }
+            }
+        } finally {
+            isEvaluating.set(false);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package course.concurrency.exams.auction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Stops auctions at their deadlines using a hierarchical timing wheel.
+ * <p>
+ * Every level has 64 slots, a slot of level L covers 64^L ticks. A deadline is kept at the lowest level
+ * where it shares all the higher digits with the current tick and moves down a level every time the wheel
+ * reaches its slot. Schedule and cancel are O(1): they only enqueue the deadline, and a single timer thread
+ * links and unlinks it in the wheel. Deadlines expired within a tick are closed by one callback task,
+ * so bidders are never blocked by the timer. A failed callback does not prevent closing of the other lots,
+ * its exception goes to the error handler.
+ */
+public class AuctionDeadlineScheduler {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService callbackExecutor;
+    private final Consumer<RuntimeException> errorHandler;
+
+    private final Queue<Deadline> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Deadline> cancelled = new ConcurrentLinkedQueue<>();
+
+    // accessed by the timer thread only
+    private final Bucket[][] wheels = new Bucket[LEVELS][WHEEL_SIZE];
+    private long currentTick;
+
+    /**
+     * Failed callbacks are reported to the uncaught exception handler of the callback thread
+     */
+    public AuctionDeadlineScheduler(long tickDuration, TimeUnit unit) {
+        this(tickDuration, unit, AuctionDeadlineScheduler::reportUncaught);
+    }
+
+    /**
+     * @param errorHandler receives the exceptions thrown by the onClose callbacks
+     */
+    public AuctionDeadlineScheduler(long tickDuration, TimeUnit unit, Consumer<RuntimeException> errorHandler) {
+        this.errorHandler = errorHandler;
+        this.tickNanos = unit.toNanos(tickDuration);
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick duration should be positive: " + tickDuration);
+        }
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new Bucket();
+            }
+        }
+        this.startNanos = System.nanoTime();
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+        this.callbackExecutor = Executors.newSingleThreadExecutor();
+        timer.scheduleAtFixedRate(this::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Schedules the auction to be stopped after the delay
+     *
+     * @param onClose receives the winning bid once the auction is stopped
+     * @return handle to cancel the deadline
+     */
+    public Deadline schedule(AuctionStoppable auction, long delay, TimeUnit unit, Consumer<Bid> onClose) {
+        long deadlineNanos = System.nanoTime() - startNanos + unit.toNanos(delay);
+        // round up, so the auction is never stopped before its deadline
+        Deadline deadline = new Deadline(auction, onClose, (deadlineNanos + tickNanos - 1) / tickNanos);
+        scheduled.offer(deadline);
+        return deadline;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        callbackExecutor.shutdown();
+    }
+
+    private void advance() {
+        long targetTick = (System.nanoTime() - startNanos) / tickNanos;
+        List<Deadline> expired = new ArrayList<>();
+
+        Deadline deadline;
+        while ((deadline = cancelled.poll()) != null) {
+            if (deadline.bucket != null) {
+                deadline.bucket.remove(deadline);
+            }
+        }
+        while ((deadline = scheduled.poll()) != null) {
+            if (deadline.state.get() == PENDING) {
+                place(deadline, expired);
+            }
+        }
+
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade(expired);
+            wheels[0][(int) currentTick & WHEEL_MASK].drainTo(expired);
+        }
+
+        if (!expired.isEmpty()) {
+            callbackExecutor.execute(() -> close(expired));
+        }
+    }
+
+    /**
+     * Moves deadlines of the slots reached by the current tick one level down, the highest level first
+     */
+    private void cascade(List<Deadline> expired) {
+        int level = 1;
+        while (level < LEVELS && (currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+            level++;
+        }
+        for (level = level - 1; level > 0; level--) {
+            Bucket bucket = wheels[level][(int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK];
+            List<Deadline> moved = new ArrayList<>();
+            bucket.drainTo(moved);
+            for (Deadline deadline : moved) {
+                place(deadline, expired);
+            }
+        }
+    }
+
+    private void place(Deadline deadline, List<Deadline> expired) {
+        long tick = deadline.deadlineTick;
+        if (tick <= currentTick) {
+            expired.add(deadline);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1
+                && (tick >>> (WHEEL_BITS * (level + 1))) != (currentTick >>> (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        wheels[level][(int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK].add(deadline);
+    }
+
+    private void close(List<Deadline> expired) {
+        for (Deadline deadline : expired) {
+            if (deadline.state.compareAndSet(PENDING, EXPIRED)) {
+                Bid winningBid = deadline.auction.stopAuction();
+                try {
+                    deadline.onClose.accept(winningBid);
+                } catch (RuntimeException e) {
+                    errorHandler.accept(e);
+                }
+            }
+        }
+    }
+
+    private static void reportUncaught(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    public final class Deadline {
+
+        private final AuctionStoppable auction;
+        private final Consumer<Bid> onClose;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // intrusive list of the bucket, accessed by the timer thread only
+        private Bucket bucket;
+        private Deadline prev;
+        private Deadline next;
+
+        private Deadline(AuctionStoppable auction, Consumer<Bid> onClose, long deadlineTick) {
+            this.auction = auction;
+            this.onClose = onClose;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * @return true if the deadline was cancelled before the auction was stopped
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                cancelled.offer(this);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    private static final class Bucket {
+        private Deadline head;
+
+        void add(Deadline deadline) {
+            deadline.bucket = this;
+            deadline.prev = null;
+            deadline.next = head;
+            if (head != null) {
+                head.prev = deadline;
+            }
+            head = deadline;
+        }
+
+        void remove(Deadline deadline) {
+            if (deadline.prev != null) {
+                deadline.prev.next = deadline.next;
+            } else {
+                head = deadline.next;
+            }
+            if (deadline.next != null) {
+                deadline.next.prev = deadline.prev;
+            }
+            deadline.bucket = null;
+            deadline.prev = null;
+            deadline.next = null;
+        }
+
+        void drainTo(List<Deadline> target) {
+            Deadline deadline = head;
+            head = null;
+            while (deadline != null) {
+                Deadline next = deadline.next;
+                deadline.bucket = null;
+                deadline.prev = null;
+                deadline.next = null;
+                target.add(deadline);
+                deadline = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package course.concurrency.exams.auction;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Flat combining auction for heavy write contention.
+ * Every thread publishes its bid into a slot, and the thread holding the combiner lock
+ * applies the highest published bid in one pass. All the other published bids are dominated
+ * by it, so they are eliminated without touching the shared state.
+ * Slots are a fixed array probed from a hash of the thread id and taken only for one proposal,
+ * so nothing is registered per thread. A thread which finds every slot taken applies its bid
+ * under the combiner lock itself.
+ */
+public class AuctionFlatCombining implements Auction {
+
+    private static final int SPINS_BEFORE_YIELD = 64;
+    // power of two, twice the number of cores or more
+    private static final int SLOT_COUNT =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+    private final Notifier notifier;
+    private final Slot[] slots = new Slot[SLOT_COUNT];
+
+    public AuctionFlatCombining(Notifier notifier) {
+        this.notifier = notifier;
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    // written only by the combiner
+    private volatile Bid latestBid = INITIAL_BID;
+
+    private final ReentrantLock combinerLock = new ReentrantLock();
+
+    /**
+     * Checks whether the new bid is the highest and updates the latest bid in this case
+     *
+     * @param bid a new bid
+     * @return true if the latest bid was updated, false otherwise
+     */
+    public boolean propose(Bid bid) {
+        if (latestBid.getPrice() >= bid.getPrice())
+            return false;
+        return publish(bid);
+    }
+
+    @Override
+    public boolean propose(long id, long participantId, long price) {
+        if (latestBid.getPrice() >= price)
+            return false;
+        return publish(new Bid(id, participantId, price));
+    }
+
+    public Bid getLatestBid() {
+        return latestBid;
+    }
+
+    private boolean publish(Bid newBid) {
+        Slot slot = takeSlot();
+        Bid outdatedBid = slot == null ? applyDirectly(newBid) : awaitCombined(slot, newBid);
+        if (outdatedBid == null) {
+            return false;
+        }
+        notifier.sendOutdatedMessage(outdatedBid);
+        return true;
+    }
+
+    /**
+     * @return bid replaced by the new one, null if the new bid was eliminated
+     */
+    private Bid awaitCombined(Slot slot, Bid newBid) {
+        slot.request = newBid;
+
+        int spins = 0;
+        while (slot.request != null) {
+            if (combinerLock.tryLock()) {
+                try {
+                    combine();
+                } finally {
+                    combinerLock.unlock();
+                }
+            } else if (++spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                spins = 0;
+                Thread.yield();
+            }
+        }
+
+        Bid outdatedBid = slot.outdated;
+        slot.isTaken.set(false);
+        return outdatedBid;
+    }
+
+    /**
+     * @return bid replaced by the new one, null if the new bid is not the highest
+     */
+    private Bid applyDirectly(Bid newBid) {
+        combinerLock.lock();
+        try {
+            Bid currentBid = latestBid;
+            if (currentBid.getPrice() >= newBid.getPrice()) {
+                return null;
+            }
+            latestBid = newBid;
+            return currentBid;
+        } finally {
+            combinerLock.unlock();
+        }
+    }
+
+    /**
+     * @return free slot taken by the current thread or null if every slot is taken
+     */
+    private Slot takeSlot() {
+        int probe = (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32);
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            Slot slot = slots[(probe + i) & (SLOT_COUNT - 1)];
+            if (!slot.isTaken.get() && slot.isTaken.compareAndSet(false, true)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called under the combiner lock
+     */
+    private void combine() {
+        Bid currentBid = latestBid;
+        Bid highestBid = currentBid;
+        Slot winner = null;
+
+        for (Slot slot : slots) {
+            Bid request = slot.request;
+            if (request != null && request.getPrice() > highestBid.getPrice()) {
+                highestBid = request;
+                winner = slot;
+            }
+        }
+        if (winner != null) {
+            latestBid = highestBid;
+        }
+
+        for (Slot slot : slots) {
+            Bid request = slot.request;
+            if (request == null || request.getPrice() > highestBid.getPrice()) {
+                // a higher bid published after the first pass is left for the next combiner
+                continue;
+            }
+            slot.outdated = slot == winner ? currentBid : null;
+            slot.request = null;
+        }
+    }
+
+    private static final class Slot {
+        // taken by a proposing thread until it has read the result
+        final AtomicBoolean isTaken = new AtomicBoolean();
+        // published by the owner, cleared by the combiner when the result is ready
+        volatile Bid request;
+        // bid replaced by the request, null if the request was eliminated
+        Bid outdated;
+    }
+}
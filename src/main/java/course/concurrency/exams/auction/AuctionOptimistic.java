@@ -1,16 +1,46 @@
 package course.concurrency.exams.auction;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 public class AuctionOptimistic implements Auction {
 
+    private static final VarHandle LATEST_BID;
+
+    static {
+        try {
+            LATEST_BID = MethodHandles.lookup()
+                    .findVarHandle(AuctionOptimistic.class, "latestBid", Bid.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final Notifier notifier;
+    private final BidJournal journal;
+
+    /**
+     * The latest bid, updated through LATEST_BID VarHandle. The caller's Bid is stored as is,
+     * so the object API allocates nothing
+     */
+    private volatile Bid latestBid;
 
     public AuctionOptimistic(Notifier notifier) {
         this.notifier = notifier;
+        this.journal = null;
+        this.latestBid = INITIAL_BID;
     }
 
-    private final AtomicReference<Bid> latestBid = new AtomicReference<>(INITIAL_BID);
+    /**
+     * Every accepted bid is appended to the journal, the latest bid is restored from it.
+     * Room for the record is claimed before a bid is published, so once the journal is full
+     * a bid which would be accepted fails with IllegalStateException and is not published
+     */
+    public AuctionOptimistic(Notifier notifier, BidJournal journal) {
+        this.notifier = notifier;
+        this.journal = journal;
+        this.latestBid = journal.getRecoveredBid();
+    }
 
     /**
      * Checks whether the new newBid is the highest and updates the latest newBid in this case
@@ -19,20 +49,107 @@ public class AuctionOptimistic implements Auction {
      * @return true if the latest newBid was updated, false otherwise
      */
     public boolean propose(Bid newBid) {
+        if (latestBid.getPrice() >= newBid.getPrice())
+            return false;
+        return update(newBid) >= 0;
+    }
+
+    /**
+     * Proposes the bid and waits until the journal has synced it with a group commit
+     *
+     * @return true if the bid became the latest one and is durable, false if it was outbid
+     */
+    public boolean proposeDurably(Bid newBid) throws InterruptedException {
+        if (latestBid.getPrice() >= newBid.getPrice())
+            return false;
+        long position = update(newBid);
+        if (position < 0)
+            return false;
+        if (journal != null)
+            journal.awaitDurable(position);
+        return true;
+    }
+
+    /**
+     * Allocation free for losing bids: the price is compared before the Bid is created
+     *
+     * @return true if the latest bid was updated, false otherwise
+     */
+    @Override
+    public boolean propose(long id, long participantId, long price) {
+        if (latestBid.getPrice() >= price)
+            return false;
+        return update(new Bid(id, participantId, price)) >= 0;
+    }
+
+    /**
+     * Publishes the highest bid of the batch with a single successful CAS.
+     * Every accepted bid of the batch is journaled, the records are claimed for all the candidates
+     *
+     * @return accepted[i] is true if bids[i] became the latest bid
+     */
+    @Override
+    public boolean[] propose(Bid[] bids) {
+        int highest = BatchProposal.highest(bids);
+        if (highest < 0 || latestBid.getPrice() >= bids[highest].getPrice())
+            return new boolean[bids.length];
+
+        Bid newBid = bids[highest];
+        int records = journal == null ? 0 : BatchProposal.candidates(bids);
+        claim(records);
         Bid currentBid;
 
         do {
-            currentBid = latestBid.get();
-            if (currentBid.getPrice() >= newBid.getPrice())
-                return false;
-        } while (!latestBid.compareAndSet(currentBid, newBid));
+            currentBid = latestBid;
+            if (currentBid.getPrice() >= newBid.getPrice()) {
+                release(records);
+                return new boolean[bids.length];
+            }
+        } while (!LATEST_BID.compareAndSet(this, currentBid, newBid));
 
+        // the reserved records are written before notifying, so a failing notifier cannot stall the group commit
+        boolean[] accepted = BatchProposal.accept(bids, currentBid);
+        if (journal != null)
+            BatchProposal.journal(bids, accepted, journal, records);
+        BatchProposal.notifyOutdated(bids, accepted, currentBid, notifier);
+        return accepted;
+    }
+
+    /**
+     * @return journal position after the record of the bid, 0 without a journal or -1 if the bid was outbid
+     */
+    private long update(Bid newBid) {
+        claim(1);
+        Bid currentBid;
+
+        do {
+            currentBid = latestBid;
+            if (currentBid.getPrice() >= newBid.getPrice()) {
+                release(1);
+                return -1;
+            }
+        } while (!LATEST_BID.compareAndSet(this, currentBid, newBid));
+
+        long position = journal == null ? 0 : journal.write(journal.reserve(1), newBid);
         notifier.sendOutdatedMessage(currentBid);
-        return true;
+        return position;
+    }
+
+    private void claim(int records) {
+        if (journal != null)
+            journal.claim(records);
+    }
+
+    /**
+     * Returns the claimed records of a bid which has lost the race
+     */
+    private void release(int records) {
+        if (journal != null)
+            journal.release(records);
     }
 
     public Bid getLatestBid() {
-        return latestBid.get();
+        return latestBid;
     }
 
 }
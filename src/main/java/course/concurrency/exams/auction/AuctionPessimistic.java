@@ -5,13 +5,27 @@ import java.util.concurrent.locks.ReentrantLock;
 public class AuctionPessimistic implements Auction {
 
     private final Notifier notifier;
+    private final BidJournal journal;
 
     public AuctionPessimistic(Notifier notifier) {
         this.notifier = notifier;
+        this.journal = null;
+        this.latestBid = INITIAL_BID;
+    }
+
+    /**
+     * Every accepted bid is appended to the journal, the latest bid is restored from it.
+     * A bid is journaled before it is published, so once the journal is full
+     * a bid which would be accepted fails with IllegalStateException and is not published
+     */
+    public AuctionPessimistic(Notifier notifier, BidJournal journal) {
+        this.notifier = notifier;
+        this.journal = journal;
+        this.latestBid = journal.getRecoveredBid();
     }
 
     private final ReentrantLock lock = new ReentrantLock();
-    private volatile Bid latestBid = INITIAL_BID;
+    private volatile Bid latestBid;
 
     /**
      * Checks whether the new bid is the highest and updates the latest bid in this case
@@ -20,25 +34,92 @@ public class AuctionPessimistic implements Auction {
      * @return true if the latest bid was updated, false otherwise
      */
     public boolean propose(Bid bid) {
+        return update(bid) >= 0;
+    }
+
+    /**
+     * Proposes the bid and waits until the journal has synced it with a group commit
+     *
+     * @return true if the bid became the latest one and is durable, false if it was outbid
+     */
+    public boolean proposeDurably(Bid bid) throws InterruptedException {
+        long position = update(bid);
+        if (position < 0)
+            return false;
+        if (journal != null)
+            journal.awaitDurable(position);
+        return true;
+    }
+
+    /**
+     * @return journal position after the record of the bid, 0 without a journal or -1 if the bid was outbid
+     */
+    private long update(Bid bid) {
         if (shouldBidBeUpdated(bid)) {
             try {
                 lock.lock();
                 if (shouldBidBeUpdated(bid)) {
+                    long position = append(bid);
                     notifier.sendOutdatedMessage(latestBid);
                     latestBid = bid;
-                    return true;
+                    return position;
                 }
             } finally {
                 lock.unlock();
             }
         }
-        return false;
+        return -1;
+    }
+
+    /**
+     * Publishes the highest bid of the batch under a single lock acquisition,
+     * outdated messages are sent after the lock is released.
+     * Every accepted bid of the batch is journaled, the records are claimed for all the candidates
+     *
+     * @return accepted[i] is true if bids[i] became the latest bid
+     */
+    @Override
+    public boolean[] propose(Bid[] bids) {
+        int highest = BatchProposal.highest(bids);
+        if (highest < 0 || !shouldBidBeUpdated(bids[highest]))
+            return new boolean[bids.length];
+
+        int records = journal == null ? 0 : BatchProposal.candidates(bids);
+        Bid replacedBid;
+        try {
+            lock.lock();
+            if (!shouldBidBeUpdated(bids[highest]))
+                return new boolean[bids.length];
+            if (journal != null)
+                journal.claim(records);
+            replacedBid = latestBid;
+            latestBid = bids[highest];
+        } finally {
+            lock.unlock();
+        }
+        // the reserved records are written before notifying, so a failing notifier cannot stall the group commit
+        boolean[] accepted = BatchProposal.accept(bids, replacedBid);
+        if (journal != null)
+            BatchProposal.journal(bids, accepted, journal, records);
+        BatchProposal.notifyOutdated(bids, accepted, replacedBid, notifier);
+        return accepted;
     }
 
     public Bid getLatestBid() {
         return latestBid;
     }
 
+    /**
+     * Must be called under the lock
+     *
+     * @return journal position after the record, 0 without a journal
+     */
+    private long append(Bid bid) {
+        if (journal == null)
+            return 0;
+        return journal.append(bid);
+    }
+
     private boolean shouldBidBeUpdated(Bid bid) {
         return bid.getPrice() > latestBid.getPrice();
     }
@@ -0,0 +1,333 @@
+package course.concurrency.exams.auction;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Hosts many concurrent lots, each one is a separate {@link AuctionStoppable} keyed by a primitive lot id.
+ * Lots are kept in lock striped open addressing tables, so keys are never boxed.
+ * Lookups use optimistic reads of the stripe and do not block each other.
+ */
+public class AuctionRegistry {
+
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final Notifier notifier;
+    private final Function<Notifier, AuctionStoppable> auctionFactory;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public AuctionRegistry(Notifier notifier, Function<Notifier, AuctionStoppable> auctionFactory) {
+        this.notifier = notifier;
+        this.auctionFactory = auctionFactory;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Opens a new lot
+     *
+     * @return true if the lot was opened, false if a lot with the same id already exists
+     */
+    public boolean open(long lotId) {
+        return stripeFor(lotId).putIfAbsent(lotId, auctionFactory.apply(notifier));
+    }
+
+    /**
+     * Opens all the lots, grouping them by stripe so that each stripe is locked once
+     *
+     * @return number of opened lots
+     */
+    public int openAll(long[] lotIds) {
+        int[] runStarts = new int[STRIPES + 1];
+        int[] order = orderByStripe(lotIds, runStarts);
+        return forEachStripeRun(lotIds.length, runStarts, (stripe, from, to) -> {
+            AuctionStoppable[] auctions = new AuctionStoppable[to - from];
+            for (int i = 0; i < auctions.length; i++) {
+                auctions[i] = auctionFactory.apply(notifier);
+            }
+            int opened = 0;
+            long stamp = stripe.writeLock();
+            try {
+                for (int i = from; i < to; i++) {
+                    if (stripe.insert(lotIds[order[i]], auctions[i - from])) {
+                        opened++;
+                    }
+                }
+            } finally {
+                stripe.unlockWrite(stamp);
+            }
+            return opened;
+        });
+    }
+
+    /**
+     * @return true if the bid became the latest bid of the lot, false if it is outdated or there is no such lot
+     */
+    public boolean propose(long lotId, Bid bid) {
+        AuctionStoppable auction = stripeFor(lotId).get(lotId);
+        return auction != null && auction.propose(bid);
+    }
+
+    public boolean propose(long lotId, long id, long participantId, long price) {
+        AuctionStoppable auction = stripeFor(lotId).get(lotId);
+        return auction != null && auction.propose(id, participantId, price);
+    }
+
+    /**
+     * @return the latest bid of the lot or null if there is no such lot
+     */
+    public Bid getLatestBid(long lotId) {
+        AuctionStoppable auction = stripeFor(lotId).get(lotId);
+        return auction == null ? null : auction.getLatestBid();
+    }
+
+    /**
+     * Stops the lot and removes it from the registry
+     *
+     * @return the winning bid or null if there is no such lot
+     */
+    public Bid close(long lotId) {
+        AuctionStoppable auction = stripeFor(lotId).remove(lotId);
+        return auction == null ? null : auction.stopAuction();
+    }
+
+    /**
+     * Stops and removes all the lots. Auctions are stopped outside of the stripe locks
+     *
+     * @return winning bids in the order of lotIds, null for unknown lots
+     */
+    public Bid[] closeAll(long[] lotIds) {
+        int[] runStarts = new int[STRIPES + 1];
+        int[] order = orderByStripe(lotIds, runStarts);
+        AuctionStoppable[] removed = new AuctionStoppable[lotIds.length];
+        forEachStripeRun(lotIds.length, runStarts, (stripe, from, to) -> {
+            long stamp = stripe.writeLock();
+            try {
+                for (int i = from; i < to; i++) {
+                    removed[order[i]] = stripe.delete(lotIds[order[i]]);
+                }
+            } finally {
+                stripe.unlockWrite(stamp);
+            }
+            return 0;
+        });
+
+        Bid[] result = new Bid[lotIds.length];
+        IntStream indexes = IntStream.range(0, lotIds.length);
+        if (lotIds.length >= PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        indexes.filter(i -> removed[i] != null).forEach(i -> result[i] = removed[i].stopAuction());
+        return result;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.readLock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeFor(long lotId) {
+        return stripes[stripeIndex(hash(lotId))];
+    }
+
+    private static int stripeIndex(long hash) {
+        return (int) (hash >>> 32) & (STRIPES - 1);
+    }
+
+    private static long hash(long key) {
+        // murmur3 fmix64
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Counting sort of lotIds indexes by stripe
+     *
+     * @param runStarts filled with the start of each stripe run in the returned order, runStarts[STRIPES] is the end
+     */
+    private static int[] orderByStripe(long[] lotIds, int[] runStarts) {
+        int[] stripeOf = new int[lotIds.length];
+        for (int i = 0; i < lotIds.length; i++) {
+            stripeOf[i] = stripeIndex(hash(lotIds[i]));
+            runStarts[stripeOf[i] + 1]++;
+        }
+        for (int s = 0; s < STRIPES; s++) {
+            runStarts[s + 1] += runStarts[s];
+        }
+        int[] cursors = Arrays.copyOf(runStarts, STRIPES);
+        int[] order = new int[lotIds.length];
+        for (int i = 0; i < lotIds.length; i++) {
+            order[cursors[stripeOf[i]]++] = i;
+        }
+        return order;
+    }
+
+    private int forEachStripeRun(int batchSize, int[] runStarts, StripeRunAction action) {
+        IntStream stripeIndexes = IntStream.range(0, STRIPES).filter(s -> runStarts[s] < runStarts[s + 1]);
+        if (batchSize >= PARALLEL_THRESHOLD) {
+            stripeIndexes = stripeIndexes.parallel();
+        }
+        return stripeIndexes.map(s -> action.apply(stripes[s], runStarts[s], runStarts[s + 1])).sum();
+    }
+
+    @FunctionalInterface
+    private interface StripeRunAction {
+        int apply(Stripe stripe, int from, int to);
+    }
+
+    /**
+     * Linear probing table, empty slots have null values.
+     * Removal uses backward shift deletion, so no tombstones are needed.
+     */
+    private static final class Stripe extends StampedLock {
+
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        private AuctionStoppable[] values = new AuctionStoppable[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        AuctionStoppable get(long key) {
+            long stamp = tryOptimisticRead();
+            AuctionStoppable found = find(keys, values, key);
+            if (validate(stamp)) {
+                return found;
+            }
+            stamp = readLock();
+            try {
+                return find(keys, values, key);
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        boolean putIfAbsent(long key, AuctionStoppable auction) {
+            long stamp = writeLock();
+            try {
+                return insert(key, auction);
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        AuctionStoppable remove(long key) {
+            long stamp = writeLock();
+            try {
+                return delete(key);
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * May observe arrays in the middle of a modification, the caller validates the result
+         */
+        private static AuctionStoppable find(long[] keys, AuctionStoppable[] values, long key) {
+            int length = keys.length;
+            if (values.length != length) {
+                return null;
+            }
+            int mask = length - 1;
+            int slot = (int) hash(key) & mask;
+            for (int probe = 0; probe < length; probe++) {
+                AuctionStoppable value = values[slot];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[slot] == key) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        // must be called under write lock
+        boolean insert(long key, AuctionStoppable auction) {
+            int mask = keys.length - 1;
+            int slot = (int) hash(key) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = auction;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+            return true;
+        }
+
+        // must be called under write lock
+        AuctionStoppable delete(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) hash(key) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    AuctionStoppable removed = values[slot];
+                    shiftBack(slot);
+                    size--;
+                    return removed;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private void shiftBack(int gap) {
+            int mask = keys.length - 1;
+            int slot = gap;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (values[slot] == null) {
+                    break;
+                }
+                int home = (int) hash(keys[slot]) & mask;
+                // move the entry if its home is not in the cyclic range (gap, slot]
+                if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                    keys[gap] = keys[slot];
+                    values[gap] = values[slot];
+                    gap = slot;
+                }
+            }
+            values[gap] = null;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            AuctionStoppable[] oldValues = values;
+            long[] newKeys = new long[oldKeys.length * 2];
+            AuctionStoppable[] newValues = new AuctionStoppable[oldKeys.length * 2];
+            int mask = newKeys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = (int) hash(oldKeys[i]) & mask;
+                    while (newValues[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    newKeys[slot] = oldKeys[i];
+                    newValues[slot] = oldValues[i];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+    }
+}
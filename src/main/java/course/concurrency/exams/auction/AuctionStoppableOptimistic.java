@@ -1,9 +1,30 @@
 package course.concurrency.exams.auction;
 
-import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 public class AuctionStoppableOptimistic implements AuctionStoppable {
 
+    private static final VarHandle STATE;
+    private static final VarHandle IS_STOPPING;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STATE = lookup.findVarHandle(AuctionStoppableOptimistic.class, "state", Object.class);
+            IS_STOPPING = lookup.findVarHandle(AuctionStoppableOptimistic.class, "isStopping", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * State of the closed auction, the latest bid is kept in finalBid then
+     */
+    private static final Object CLOSED = new Object();
+
+    private static final int SPINS_BEFORE_YIELD = 64;
+
     private final Notifier notifier;
 
     public AuctionStoppableOptimistic(Notifier notifier) {
@@ -11,9 +32,18 @@ public class AuctionStoppableOptimistic implements AuctionStoppable {
     }
 
     /**
-     * AtomicMarkableReference of the latest bid and a state of active\closed auction
+     * The latest Bid while the auction is active or CLOSED.
+     * Both the bid and the active\closed state are switched by one CAS on the caller's Bid,
+     * so neither propose(Bid) nor stopAuction allocate. The primitive propose creates a Bid
+     * only for a price which passes the check against the latest bid
+     */
+    private volatile Object state = INITIAL_BID;
+
+    /**
+     * The latest bid at the moment of closing, written by the only stopping thread before the state becomes CLOSED
      */
-    private final AtomicMarkableReference<Bid> latestBid = new AtomicMarkableReference<>(INITIAL_BID, true);
+    private volatile Bid finalBid;
+    private volatile boolean isStopping;
 
     /**
      * Checks whether the new newBid is the highest and updates the latest newBid in this case
@@ -22,29 +52,73 @@ public class AuctionStoppableOptimistic implements AuctionStoppable {
      * @return true if the latest newBid was updated, false otherwise
      */
     public boolean propose(Bid newBid) {
-        Bid currentBid;
+        if (isOutdated(state, newBid.getPrice()))
+            return false;
+        return update(newBid);
+    }
+
+    @Override
+    public boolean propose(long id, long participantId, long price) {
+        if (isOutdated(state, price))
+            return false;
+        return update(new Bid(id, participantId, price));
+    }
+
+    private boolean update(Bid newBid) {
+        Object currentState;
 
         do {
-            currentBid = latestBid.getReference();
-            if (!latestBid.isMarked() || currentBid.getPrice() >= newBid.getPrice())
+            currentState = state;
+            if (isOutdated(currentState, newBid.getPrice()))
                 return false;
-        } while (!latestBid.compareAndSet(currentBid, newBid, true, true));
+        } while (!STATE.compareAndSet(this, currentState, newBid));
 
-        notifier.sendOutdatedMessage(currentBid);
+        notifier.sendOutdatedMessage((Bid) currentState);
         return true;
     }
 
+    private static boolean isOutdated(Object currentState, long price) {
+        return currentState == CLOSED || ((Bid) currentState).getPrice() >= price;
+    }
+
     public Bid getLatestBid() {
-        return latestBid.getReference();
+        Object currentState = state;
+        return currentState == CLOSED ? finalBid : (Bid) currentState;
     }
 
+    /**
+     * Only one thread closes the auction, the others wait until it is closed
+     * to return the same final bid
+     */
     public Bid stopAuction() {
-        Bid currentLatestBid;
+        if (state != CLOSED && IS_STOPPING.compareAndSet(this, false, true)) {
+            close();
+        }
+        // the stopping thread may be descheduled, so the others give up the core after a few spins
+        int spins = 0;
+        while (state != CLOSED) {
+            if (++spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                spins = 0;
+                Thread.yield();
+            }
+        }
+        return finalBid;
+    }
 
-        do {
-            currentLatestBid = latestBid.getReference();
-        } while (!latestBid.attemptMark(currentLatestBid, false));
+    private void close() {
+        int spins = 1;
+        while (true) {
+            Bid currentBid = (Bid) state;
+            finalBid = currentBid;
+            if (STATE.compareAndSet(this, currentBid, CLOSED))
+                return;
 
-        return currentLatestBid;
+            for (int i = 0; i < spins; i++) {
+                Thread.onSpinWait();
+            }
+            spins = Math.min(spins << 1, 256);
+        }
     }
 }
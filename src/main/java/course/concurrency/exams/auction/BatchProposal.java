@@ -0,0 +1,92 @@
+package course.concurrency.exams.auction;
+
+/**
+ * Helpers for proposing a batch of bids with a single update of the shared state.
+ * The batch is reduced to its highest bid, which is published at once, and the batch is treated
+ * as if its bids were proposed one after another right at the moment of publication
+ */
+final class BatchProposal {
+
+    private BatchProposal() {
+    }
+
+    /**
+     * @return index of the first bid with the highest price, -1 for an empty batch
+     */
+    static int highest(Bid[] bids) {
+        int highest = -1;
+        for (int i = 0; i < bids.length; i++) {
+            if (highest < 0 || bids[i].getPrice() > bids[highest].getPrice()) {
+                highest = i;
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * @return number of bids which may be accepted: every bid higher than all the previous ones of the batch
+     */
+    static int candidates(Bid[] bids) {
+        int count = 0;
+        long highestPrice = Long.MIN_VALUE;
+        for (Bid bid : bids) {
+            if (bid.getPrice() > highestPrice) {
+                highestPrice = bid.getPrice();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the accepted bids in their order into the claimed records and releases the records left over
+     *
+     * @param records number of the claimed records
+     */
+    static void journal(Bid[] bids, boolean[] accepted, BidJournal journal, int records) {
+        int count = 0;
+        for (boolean isAccepted : accepted) {
+            if (isAccepted) {
+                count++;
+            }
+        }
+        journal.release(records - count);
+        long position = journal.reserve(count);
+        for (int i = 0; i < bids.length; i++) {
+            if (accepted[i]) {
+                position = journal.write(position, bids[i]);
+            }
+        }
+    }
+
+    /**
+     * Marks bids which outbid every previous one starting from the replaced bid
+     *
+     * @param replacedBid the latest bid before the highest bid of the batch was published
+     * @return accepted[i] is true if bids[i] became the latest bid
+     */
+    static boolean[] accept(Bid[] bids, Bid replacedBid) {
+        boolean[] accepted = new boolean[bids.length];
+        Bid latestBid = replacedBid;
+        for (int i = 0; i < bids.length; i++) {
+            if (bids[i].getPrice() > latestBid.getPrice()) {
+                accepted[i] = true;
+                latestBid = bids[i];
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Sends outdated messages for the replaced bid and for all the accepted bids but the last one
+     */
+    static void notifyOutdated(Bid[] bids, boolean[] accepted, Bid replacedBid, Notifier notifier) {
+        Bid latestBid = replacedBid;
+        for (int i = 0; i < bids.length; i++) {
+            if (accepted[i]) {
+                notifier.sendOutdatedMessage(latestBid);
+                latestBid = bids[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package course.concurrency.exams.auction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Notifier which coalesces outdated messages per participant within a time window
+ * and sends every window as a single batch.
+ * At most {@code capacity} participants can wait for the next batch, the overflow is handled by {@link OverflowPolicy}.
+ * The flush thread only takes the batches, they are sent by a separate pool,
+ * so a slow delivery neither stretches the window nor stalls the blocked senders.
+ * At most {@link #SENDER_THREADS} batches are in flight: while the senders are saturated the pending messages
+ * are not taken, they keep coalescing into the next batch and the overflow policy applies to them.
+ */
+public class BatchingNotifier extends Notifier {
+
+    public enum OverflowPolicy {
+        /**
+         * the oldest pending message is dropped to free the space
+         */
+        DROP_OLDEST,
+        /**
+         * the sender waits until the next batch is taken
+         */
+        BLOCK,
+        /**
+         * the message is merged into a single summary notification of the batch
+         */
+        MERGE
+    }
+
+    static final int SENDER_THREADS = 16;
+
+    private final OverflowPolicy overflowPolicy;
+    private final int capacity;
+    private final ThreadPoolExecutor sender = new ThreadPoolExecutor(SENDER_THREADS, SENDER_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(SENDER_THREADS));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // latest outdated bid of every participant waiting for the next batch, in the order of arrival
+    private final Map<Long, Bid> pending = new LinkedHashMap<>();
+    private int mergedInWindow;
+    private int batchesInFlight;
+    private boolean isShutdown;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder flushedBatches = new LongAdder();
+    private final LongAdder deferredFlushes = new LongAdder();
+    private final LongAdder sentBatches = new LongAdder();
+
+    public BatchingNotifier(long windowMillis, int capacity, OverflowPolicy overflowPolicy) {
+        this(Executors.newSingleThreadScheduledExecutor(), windowMillis, capacity, overflowPolicy);
+    }
+
+    private BatchingNotifier(ScheduledExecutorService scheduler, long windowMillis, int capacity,
+                             OverflowPolicy overflowPolicy) {
+        super(scheduler);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        scheduler.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void sendOutdatedMessage(Bid bid) {
+        if (bid.equals(Auction.INITIAL_BID)) {
+            return;
+        }
+        enqueued.increment();
+
+        lock.lock();
+        try {
+            if (pending.containsKey(bid.getParticipantId())) {
+                pending.put(bid.getParticipantId(), bid);
+                coalesced.increment();
+                return;
+            }
+            if (pending.size() >= capacity && !makeRoom()) {
+                return;
+            }
+            pending.put(bid.getParticipantId(), bid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the overflow policy, must be called under the lock
+     *
+     * @return true if the message should be added to the pending ones
+     */
+    private boolean makeRoom() {
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            Iterator<Bid> oldest = pending.values().iterator();
+            oldest.next();
+            oldest.remove();
+            dropped.increment();
+            return true;
+        }
+        if (overflowPolicy == OverflowPolicy.MERGE) {
+            mergedInWindow++;
+            merged.increment();
+            return false;
+        }
+
+        try {
+            while (pending.size() >= capacity && !isShutdown) {
+                notFull.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (pending.size() >= capacity) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private void flush() {
+        List<Bid> batch;
+        int mergedCount;
+
+        lock.lock();
+        try {
+            if (pending.isEmpty() && mergedInWindow == 0) {
+                return;
+            }
+            if (batchesInFlight >= SENDER_THREADS) {
+                deferredFlushes.increment();
+                return;
+            }
+            batchesInFlight++;
+            batch = new ArrayList<>(pending.values());
+            mergedCount = mergedInWindow;
+            pending.clear();
+            mergedInWindow = 0;
+            flushedBatches.increment();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            sender.execute(() -> {
+                try {
+                    sendBatch(batch, mergedCount);
+                } finally {
+                    onBatchSent();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the notifier is shut down
+            dropped.add(batch.size() + mergedCount);
+            onBatchSent();
+        }
+    }
+
+    private void onBatchSent() {
+        lock.lock();
+        try {
+            batchesInFlight--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends one batch of outdated messages
+     *
+     * @param bids        the latest outdated bid of every participant in the window
+     * @param mergedCount number of messages merged into the summary notification
+     */
+    protected void sendBatch(List<Bid> bids, int mergedCount) {
+        imitateSending();
+        sentBatches.increment();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getMergedCount() {
+        return merged.sum();
+    }
+
+    /**
+     * @return number of batches taken from the pending messages, including the ones still being sent
+     */
+    public long getFlushedBatchCount() {
+        return flushedBatches.sum();
+    }
+
+    /**
+     * @return number of windows whose messages were left for the next batch as the senders were saturated
+     */
+    public long getDeferredFlushCount() {
+        return deferredFlushes.sum();
+    }
+
+    public long getSentBatchCount() {
+        return sentBatches.sum();
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            isShutdown = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        super.shutdown();
+        sender.shutdownNow();
+    }
+}
@@ -1,25 +1,25 @@
 package course.concurrency.exams.auction;
 
 public class Bid {
-    private Long id;
-    private Long participantId;
-    private Long price;
+    private final long id;
+    private final long participantId;
+    private final long price;
 
-    public Bid(Long id, Long participantId, Long price) {
+    public Bid(long id, long participantId, long price) {
         this.id = id;
         this.participantId = participantId;
         this.price = price;
     }
 
-    public Long getId() {
+    public long getId() {
         return id;
     }
 
-    public Long getParticipantId() {
+    public long getParticipantId() {
         return participantId;
     }
 
-    public Long getPrice() {
+    public long getPrice() {
         return price;
     }
 }
@@ -0,0 +1,254 @@
+package course.concurrency.exams.auction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of accepted bids in a memory-mapped file.
+ * <p>
+ * Appending threads reserve a record with a single getAndAdd and write it directly into the mapped buffer,
+ * the checksum is written last with release semantics and marks the record as complete.
+ * An auction claims the room for its records before publishing a bid, so a full journal fails the bid
+ * instead of failing after it has become the latest one. A claim only counts the free records,
+ * a bid which loses the race releases it and leaves nothing in the file.
+ * A background thread commits a group of appended records with one force() per interval:
+ * it advances the durable position over the contiguous prefix of complete records.
+ * On open the journal is replayed to find the latest bid.
+ */
+public class BidJournal implements Closeable {
+
+    // id, participantId, price, checksum
+    private static final int RECORD_SIZE = 4 * Long.BYTES;
+    private static final int CHECKSUM_OFFSET = 3 * Long.BYTES;
+    private static final long CHECKSUM_SEED = 0x9E3779B97F4A7C15L;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final Bid recoveredBid;
+
+    private final AtomicLong reserved;
+    // records which are neither reserved nor claimed
+    private final AtomicLong available;
+    private volatile long durablePosition;
+    private volatile boolean isClosed;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition durable = syncLock.newCondition();
+    private final ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Opens or creates the journal and replays it
+     *
+     * @param maxRecords        capacity of the journal
+     * @param groupCommitMillis interval between syncs of the appended records
+     */
+    public BidJournal(Path path, int maxRecords, long groupCommitMillis) throws IOException {
+        this.capacity = (long) maxRecords * RECORD_SIZE;
+        if (maxRecords <= 0 || capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal capacity is out of range: " + maxRecords);
+        }
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        Bid latestBid = Auction.INITIAL_BID;
+        long position = 0;
+        while (position < capacity && isComplete(position)) {
+            Bid bid = readRecord(position);
+            if (bid.getPrice() > latestBid.getPrice()) {
+                latestBid = bid;
+            }
+            position += RECORD_SIZE;
+        }
+        // records after a torn one were never reported as durable, they must not be replayed after new appends
+        for (long tail = position; tail < capacity; tail += Long.BYTES) {
+            buffer.putLong((int) tail, 0L);
+        }
+        buffer.force();
+
+        this.recoveredBid = latestBid;
+        this.reserved = new AtomicLong(position);
+        this.available = new AtomicLong((capacity - position) / RECORD_SIZE);
+        this.durablePosition = position;
+        committer.scheduleWithFixedDelay(this::commit, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the highest bid found in the journal on open or INITIAL_BID for an empty journal
+     */
+    public Bid getRecoveredBid() {
+        return recoveredBid;
+    }
+
+    /**
+     * Writes the bid into the mapped file, durability is provided by the next group commit
+     *
+     * @return position to pass to {@link #awaitDurable(long)}
+     */
+    public long append(Bid bid) {
+        return append(bid.getId(), bid.getParticipantId(), bid.getPrice());
+    }
+
+    public long append(long id, long participantId, long price) {
+        claim(1);
+        return write(reserve(1), id, participantId, price);
+    }
+
+    /**
+     * Claims room for the records, the claimed records must be reserved or released then
+     *
+     * @throws IllegalStateException if the journal has no room for all of them
+     */
+    public void claim(int records) {
+        long free;
+        do {
+            free = available.get();
+            if (free < records) {
+                throw new IllegalStateException("Bid journal is full");
+            }
+        } while (!available.compareAndSet(free, free - records));
+    }
+
+    /**
+     * Returns claimed records which are not needed anymore
+     */
+    public void release(int records) {
+        available.addAndGet(records);
+    }
+
+    /**
+     * Reserves consecutive records out of the claimed ones, every one of them must be written then
+     *
+     * @return position of the first record
+     */
+    public long reserve(int records) {
+        return reserved.getAndAdd((long) records * RECORD_SIZE);
+    }
+
+    public long write(long position, Bid bid) {
+        return write(position, bid.getId(), bid.getParticipantId(), bid.getPrice());
+    }
+
+    /**
+     * Writes the bid into a reserved record
+     *
+     * @return position after the record to pass to {@link #awaitDurable(long)}
+     */
+    public long write(long position, long id, long participantId, long price) {
+        int offset = (int) position;
+        LONGS.set(buffer, offset, id);
+        LONGS.set(buffer, offset + Long.BYTES, participantId);
+        LONGS.set(buffer, offset + 2 * Long.BYTES, price);
+        LONGS.setRelease(buffer, offset + CHECKSUM_OFFSET, checksum(id, participantId, price));
+        return position + RECORD_SIZE;
+    }
+
+    /**
+     * Blocks until the journal is synced up to the position
+     *
+     * @throws IllegalStateException if the journal is closed before the position is synced
+     */
+    public void awaitDurable(long position) throws InterruptedException {
+        if (durablePosition >= position) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            while (durablePosition < position && !isClosed) {
+                durable.await();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+        if (durablePosition < position) {
+            throw new IllegalStateException("Bid journal is closed before position " + position + " is synced");
+        }
+    }
+
+    public long getDurablePosition() {
+        return durablePosition;
+    }
+
+    private void commit() {
+        long position = durablePosition;
+        long limit = Math.min(reserved.get(), capacity);
+        while (position < limit && isComplete(position)) {
+            position += RECORD_SIZE;
+        }
+        if (position == durablePosition) {
+            return;
+        }
+        buffer.force();
+
+        syncLock.lock();
+        try {
+            durablePosition = position;
+            durable.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private boolean isComplete(long position) {
+        int offset = (int) position;
+        long checksum = (long) LONGS.getAcquire(buffer, offset + CHECKSUM_OFFSET);
+        return checksum != 0 && checksum == checksum(
+                (long) LONGS.get(buffer, offset),
+                (long) LONGS.get(buffer, offset + Long.BYTES),
+                (long) LONGS.get(buffer, offset + 2 * Long.BYTES));
+    }
+
+    private Bid readRecord(long position) {
+        int offset = (int) position;
+        return new Bid(
+                (long) LONGS.get(buffer, offset),
+                (long) LONGS.get(buffer, offset + Long.BYTES),
+                (long) LONGS.get(buffer, offset + 2 * Long.BYTES));
+    }
+
+    private static long checksum(long id, long participantId, long price) {
+        long hash = CHECKSUM_SEED;
+        hash = (hash ^ id) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ participantId) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ price) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Commits all the appended records and closes the file, threads still waiting for other records fail
+     */
+    @Override
+    public void close() throws IOException {
+        committer.shutdown();
+        try {
+            committer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commit();
+        syncLock.lock();
+        try {
+            isClosed = true;
+            durable.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+        channel.close();
+    }
+}
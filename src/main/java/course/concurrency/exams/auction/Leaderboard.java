@@ -0,0 +1,155 @@
+package course.concurrency.exams.auction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps K highest bids. Updates are striped: every stripe keeps its own top K in a min-heap,
+ * so memory is bounded by stripes * K bids. The global top K is merged from the stripes on read.
+ * <p>
+ * The K-th price of any stripe is not higher than the global K-th price, so the highest of the stripe
+ * floors is a safe threshold to reject a bid without taking any lock.
+ */
+public class Leaderboard {
+
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+    private final int k;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong floor = new AtomicLong(Long.MIN_VALUE);
+
+    public Leaderboard(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("K should be positive: " + k);
+        }
+        this.k = k;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(k);
+        }
+    }
+
+    /**
+     * @return false if the bid is not among K highest bids
+     */
+    public boolean offer(Bid bid) {
+        if (bid.getPrice() <= floor.get()) {
+            return false;
+        }
+
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        long stripeFloor;
+        stripe.lock();
+        try {
+            if (!stripe.offer(bid)) {
+                return false;
+            }
+            stripeFloor = stripe.floor();
+        } finally {
+            stripe.unlock();
+        }
+
+        if (stripeFloor > floor.get()) {
+            floor.accumulateAndGet(stripeFloor, Math::max);
+        }
+        return true;
+    }
+
+    /**
+     * @return the price a bid has to beat to get into the leaderboard for sure
+     */
+    public long getFloor() {
+        return floor.get();
+    }
+
+    /**
+     * @return up to K highest bids, the highest first
+     */
+    public List<Bid> getTopBids() {
+        List<Bid> candidates = new ArrayList<>(k * STRIPES);
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+            try {
+                for (int i = 0; i < stripe.size; i++) {
+                    candidates.add(stripe.heap[i]);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return candidates.stream()
+                .sorted(Comparator.comparingLong(Bid::getPrice).reversed())
+                .limit(k)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Min-heap of at most K bids by price
+     */
+    private static final class Stripe extends ReentrantLock {
+
+        private final Bid[] heap;
+        private int size;
+
+        Stripe(int k) {
+            heap = new Bid[k];
+        }
+
+        long floor() {
+            return size == heap.length ? heap[0].getPrice() : Long.MIN_VALUE;
+        }
+
+        boolean offer(Bid bid) {
+            if (size < heap.length) {
+                heap[size] = bid;
+                siftUp(size++);
+                return true;
+            }
+            if (bid.getPrice() <= heap[0].getPrice()) {
+                return false;
+            }
+            heap[0] = bid;
+            siftDown(0);
+            return true;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent].getPrice() <= heap[i].getPrice()) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && heap[left].getPrice() < heap[smallest].getPrice()) {
+                    smallest = left;
+                }
+                if (right < size && heap[right].getPrice() < heap[smallest].getPrice()) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            Bid tmp = heap[i];
+            heap[i] = heap[j];
+            heap[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package course.concurrency.exams.auction;
+
+import java.util.List;
+
+/**
+ * Auction which additionally keeps K highest proposed bids.
+ * The latest bid is the highest proposed one, so it is never lower than the K-th price
+ * and a bid not above the K-th price is rejected without reaching the auction.
+ */
+public class LeaderboardAuction implements Auction {
+
+    private final Auction auction;
+    private final Leaderboard leaderboard;
+
+    public LeaderboardAuction(Auction auction, int k) {
+        this.auction = auction;
+        this.leaderboard = new Leaderboard(k);
+    }
+
+    public boolean propose(Bid bid) {
+        if (bid.getPrice() <= leaderboard.getFloor())
+            return false;
+        leaderboard.offer(bid);
+        return auction.propose(bid);
+    }
+
+    public Bid getLatestBid() {
+        return auction.getLatestBid();
+    }
+
+    /**
+     * @return up to K highest proposed bids, the highest first
+     */
+    public List<Bid> getTopBids() {
+        return leaderboard.getTopBids();
+    }
+}
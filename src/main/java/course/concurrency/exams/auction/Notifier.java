@@ -5,7 +5,15 @@ import java.util.concurrent.Executors;
 
 public class Notifier {
 
-    private final ExecutorService executorService = Executors.newFixedThreadPool(100);
+    private final ExecutorService executorService;
+
+    public Notifier() {
+        this(Executors.newFixedThreadPool(100));
+    }
+
+    protected Notifier(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
 
     public void sendOutdatedMessage(Bid bid) {
         if (bid.equals(Auction.INITIAL_BID)) {
@@ -14,7 +22,7 @@ public class Notifier {
         executorService.submit(this::imitateSending);
     }
 
-    private void imitateSending() {
+    protected void imitateSending() {
         try {
             Thread.sleep(2000);
         } catch (InterruptedException ignored) {
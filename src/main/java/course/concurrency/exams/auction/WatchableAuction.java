@@ -0,0 +1,127 @@
+package course.concurrency.exams.auction;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Auction which lets readers wait for the price change instead of polling {@link #getLatestBid()}.
+ * <p>
+ * Every accepted bid increments the version. All the readers waiting for the same version share
+ * one future which is created lazily by the first waiter and completed once the next version is published,
+ * so proposals pay nothing while nobody waits and one completion wakes every waiter.
+ * The future is completed by the executor, so the bidder does not run the stages of the waiters.
+ */
+public class WatchableAuction implements Auction {
+
+    private final Auction auction;
+    private final Executor executor;
+    private final AtomicReference<VersionedBid> latest;
+    private final AtomicReference<CompletableFuture<VersionedBid>> nextChange = new AtomicReference<>();
+
+    public WatchableAuction(Auction auction) {
+        this(auction, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor executor completing the waiters and running their dependent stages
+     */
+    public WatchableAuction(Auction auction, Executor executor) {
+        this.auction = auction;
+        this.executor = executor;
+        this.latest = new AtomicReference<>(new VersionedBid(0, auction.getLatestBid()));
+    }
+
+    public boolean propose(Bid bid) {
+        if (!auction.propose(bid))
+            return false;
+        publish(bid);
+        return true;
+    }
+
+    @Override
+    public boolean[] propose(Bid[] bids) {
+        boolean[] accepted = auction.propose(bids);
+        for (int i = accepted.length - 1; i >= 0; i--) {
+            if (accepted[i]) {
+                publish(bids[i]);
+                break;
+            }
+        }
+        return accepted;
+    }
+
+    public Bid getLatestBid() {
+        return auction.getLatestBid();
+    }
+
+    public VersionedBid getVersionedBid() {
+        return latest.get();
+    }
+
+    /**
+     * @return future completed with the latest bid as soon as the version is higher than the given one
+     */
+    public CompletableFuture<Bid> nextBidAfter(long version) {
+        while (true) {
+            VersionedBid current = latest.get();
+            if (current.version > version) {
+                return CompletableFuture.completedFuture(current.bid);
+            }
+
+            CompletableFuture<VersionedBid> change = nextChange.get();
+            if (change == null) {
+                change = new CompletableFuture<>();
+                if (!nextChange.compareAndSet(null, change)) {
+                    continue;
+                }
+            }
+            // a bidder which has not seen the installed future yet has already increased the version
+            if (latest.get().version > version) {
+                continue;
+            }
+            // the installed future may be already taken by a bidder publishing the current version,
+            // then the waiter has to wait once more. A new stage also hides the shared future from the waiter
+            return change.thenCompose(next -> next.version > version
+                    ? CompletableFuture.completedFuture(next.bid)
+                    : nextBidAfter(version));
+        }
+    }
+
+    /**
+     * Accepted bids may be published out of order by concurrent bidders, the lower one is skipped then
+     */
+    private void publish(Bid bid) {
+        VersionedBid current;
+        do {
+            current = latest.get();
+            if (current.bid.getPrice() >= bid.getPrice())
+                return;
+        } while (!latest.compareAndSet(current, new VersionedBid(current.version + 1, bid)));
+
+        CompletableFuture<VersionedBid> change = nextChange.getAndSet(null);
+        if (change != null) {
+            // the waiters are woken with the version which is the latest by then
+            change.completeAsync(latest::get, executor);
+        }
+    }
+
+    public static final class VersionedBid {
+        private final long version;
+        private final Bid bid;
+
+        private VersionedBid(long version, Bid bid) {
+            this.version = version;
+            this.bid = bid;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public Bid getBid() {
+            return bid;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package course.concurrency.m2_async.benchmarks;
+
+import course.concurrency.m2_async.cf.LoadGenerator;
+import course.concurrency.m2_async.cf.report.Others;
+import course.concurrency.m2_async.cf.report.ReportService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of the report execution strategies, every benchmark thread is a client requesting reports.
+ * The pooled strategies are run for every pool size, VIRTUAL_THREADS has no pool and is run once per load
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class ReportServiceBenchmarks {
+
+    // Change CLIENT_COUNTS to experiment, every count is a separate run with its own json result
+    public static final int[] CLIENT_COUNTS = {1, 8, 32};
+
+    // short enough to get many samples, long enough to keep the threads blocked most of the time
+    private static final long SLEEP_MILLIS = 50;
+
+    @State(Scope.Benchmark)
+    public static class PooledService {
+
+        @Param({"FIXED_POOL", "FORK_JOIN", "CF_CUSTOM_POOL"})
+        private ReportService.ExecutionStrategy strategy;
+
+        @Param
+        private LoadGenerator.Load load;
+
+        // N/2, N, 2N of an 8 core machine and the 150 threads of the commented out executors
+        @Param({"4", "8", "16", "150"})
+        private int poolSize;
+
+        private ReportService reportService;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            reportService = new ReportService(strategy, poolSize, new LoadGenerator(load, SLEEP_MILLIS));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            reportService.shutdown();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ThreadPerTaskService {
+
+        @Param
+        private LoadGenerator.Load load;
+
+        private ReportService reportService;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            // the pool size is not used by VIRTUAL_THREADS
+            reportService = new ReportService(ReportService.ExecutionStrategy.VIRTUAL_THREADS, 0,
+                    new LoadGenerator(load, SLEEP_MILLIS));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            reportService.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int clients : CLIENT_COUNTS) {
+            Options options = new OptionsBuilder()
+                    .include(ReportServiceBenchmarks.class.getName())
+                    .threads(clients)
+                    .forks(1)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("report-service-benchmarks-" + clients + "-clients.json")
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+
+    @Benchmark
+    public Others.Report getReportPooled(PooledService service) {
+        return service.reportService.getReport();
+    }
+
+    @Benchmark
+    public Others.Report getReportThreadPerTask(ThreadPerTaskService service) {
+        return service.reportService.getReport();
+    }
+}
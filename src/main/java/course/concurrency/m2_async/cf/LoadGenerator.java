@@ -4,14 +4,45 @@ import java.util.stream.IntStream;
 
 public class LoadGenerator {
 
-    public static void work() {
-//        sleep();
-        compute();
+    public enum Load {
+        // keeps a core busy, more threads than cores do not help
+        CPU,
+        // blocks the thread without using a core, more threads serve more requests
+        SLEEP
     }
 
-    private static void sleep() {
+    private static final long DEFAULT_SLEEP_MILLIS = 1500;
+
+    private final Load load;
+    private final long sleepMillis;
+
+    public LoadGenerator() {
+        this(Load.CPU);
+    }
+
+    public LoadGenerator(Load load) {
+        this(load, DEFAULT_SLEEP_MILLIS);
+    }
+
+    /**
+     * @param sleepMillis duration of one work in the SLEEP mode
+     */
+    public LoadGenerator(Load load, long sleepMillis) {
+        this.load = load;
+        this.sleepMillis = sleepMillis;
+    }
+
+    public void work() {
+        if (load == Load.SLEEP) {
+            sleep();
+        } else {
+            compute();
+        }
+    }
+
+    private void sleep() {
         try {
-            Thread.sleep(1500);
+            Thread.sleep(sleepMillis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -20,4 +51,4 @@ public class LoadGenerator {
     private static int compute() {
         return IntStream.range(0, 5_000_000).boxed().filter(i -> i % 2 == 0).reduce((a, b) -> b).get();
     }
-}
\ No newline at end of file
+}
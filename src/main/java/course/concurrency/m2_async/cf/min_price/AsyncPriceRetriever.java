@@ -0,0 +1,21 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Retrieves the price without blocking the calling thread.
+ * A cancelled future tells the retriever that the price is not needed anymore.
+ */
+@FunctionalInterface
+public interface AsyncPriceRetriever {
+
+    CompletableFuture<Double> getPriceAsync(long itemId, long shopId);
+
+    /**
+     * Adapts the blocking retriever, every call occupies a thread of the executor while it is running
+     */
+    static AsyncPriceRetriever fromBlocking(PriceRetriever retriever, Executor executor) {
+        return (itemId, shopId) -> CompletableFuture.supplyAsync(() -> retriever.getPrice(itemId, shopId), executor);
+    }
+}
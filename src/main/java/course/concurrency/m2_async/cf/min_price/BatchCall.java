@@ -0,0 +1,53 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cancelled batch call has missed the request deadline, that is a failure of the shop
+ */
+final class BatchCall extends FutureTask<double[]> {
+
+    private final BatchRequest request;
+    private final ShopCalls shopCalls;
+    private final CircuitBreaker breaker;
+    private final Bulkhead bulkhead;
+
+    BatchCall(BatchRequest request, long shopId, CircuitBreaker breaker, Bulkhead bulkhead) {
+        super(() -> retrieve(request, shopId));
+        this.request = request;
+        this.shopCalls = request.shopCalls;
+        this.breaker = breaker;
+        this.bulkhead = bulkhead;
+    }
+
+    private static double[] retrieve(BatchRequest request, long shopId) {
+        ShopCalls shopCalls = request.shopCalls;
+        shopCalls.inFlightCalls.incrementAndGet();
+        try {
+            return shopCalls.priceRetriever.getPrices(request.itemIds, shopId);
+        } finally {
+            shopCalls.inFlightCalls.decrementAndGet();
+        }
+    }
+
+    @Override
+    protected void done() {
+        double[] prices = null;
+        if (isCancelled()) {
+            shopCalls.timedOutCalls.increment();
+        } else {
+            try {
+                prices = get();
+            } catch (InterruptedException | ExecutionException ignored) {
+            }
+        }
+        if (prices != null) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure();
+        }
+        ShopCalls.release(bulkhead, prices != null, prices == null);
+        request.onPrices(prices);
+    }
+}
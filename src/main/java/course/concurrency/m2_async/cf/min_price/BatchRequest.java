@@ -0,0 +1,97 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Minimal prices of several items. Batch calls take longer than single ones,
+ * so they are not hedged and are bounded by the request deadline instead of the shop timeouts
+ */
+final class BatchRequest {
+
+    final long[] itemIds;
+    final ShopCalls shopCalls;
+    final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+    private final Queue<Future<?>> calls = new ConcurrentLinkedQueue<>();
+
+    // guarded by this
+    private final double[] minPrices;
+    private int pending;
+
+    BatchRequest(ShopCalls shopCalls, long[] itemIds, int shopCount) {
+        this.shopCalls = shopCalls;
+        this.itemIds = itemIds;
+        this.minPrices = new double[itemIds.length];
+        Arrays.fill(minPrices, Double.NaN);
+        this.pending = shopCount;
+        if (shopCount == 0) {
+            complete();
+        }
+    }
+
+    void submit(long shopId) {
+        Bulkhead bulkhead = shopCalls.bulkhead(shopId);
+        if (bulkhead != null && !bulkhead.tryAcquire()) {
+            onPrices(null);
+            return;
+        }
+        CircuitBreaker breaker = shopCalls.breaker(shopId);
+        if (!breaker.tryAcquire()) {
+            shopCalls.skippedCalls.increment();
+            ShopCalls.release(bulkhead, false, false);
+            onPrices(null);
+            return;
+        }
+        BatchCall call = new BatchCall(this, shopId, breaker, bulkhead);
+        try {
+            shopCalls.executor.execute(call);
+        } catch (RejectedExecutionException e) {
+            shopCalls.rejectedCalls.increment();
+            breaker.onCancel();
+            ShopCalls.release(bulkhead, false, false);
+            onPrices(null);
+            return;
+        }
+        calls.offer(call);
+        if (result.isDone()) {
+            call.cancel(true);
+        }
+    }
+
+    /**
+     * @param prices prices of the shop in the order of itemIds or null if the shop has not answered
+     */
+    void onPrices(double[] prices) {
+        boolean isLast;
+        synchronized (this) {
+            if (prices != null) {
+                for (int i = 0; i < Math.min(prices.length, minPrices.length); i++) {
+                    double price = prices[i];
+                    // any price is less than NaN minimum
+                    if (!Double.isNaN(price) && !(price >= minPrices[i])) {
+                        minPrices[i] = price;
+                    }
+                }
+            }
+            isLast = --pending == 0;
+        }
+        if (isLast) {
+            complete();
+        }
+    }
+
+    void complete() {
+        double[] prices;
+        synchronized (this) {
+            prices = minPrices.clone();
+        }
+        if (result.complete(prices)) {
+            calls.forEach(call -> call.cancel(true));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent calls to one shop.
+ * <p>
+ * The limit is adjusted in the AIMD way: every successful call increases it by 1/limit,
+ * that is by one per limit of calls, and every timed out or failed call cuts it by a quarter.
+ * A shop which slows down gets fewer calls at once, so its calls cannot occupy all the executor threads.
+ */
+final class Bulkhead {
+
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongAdder rejections = new LongAdder();
+
+    // guarded by this
+    private double limit;
+    private int inFlight;
+
+    Bulkhead(int minLimit, int maxLimit) {
+        this.minLimit = Math.min(minLimit, maxLimit);
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * @return true if the call may be sent, it should be released by one of onSuccess, onDrop or onCancel then
+     */
+    boolean tryAcquire() {
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+        }
+        rejections.increment();
+        return false;
+    }
+
+    synchronized void onSuccess() {
+        inFlight--;
+        limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    /**
+     * Releases a timed out or failed call
+     */
+    synchronized void onDrop() {
+        inFlight--;
+        limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+    }
+
+    /**
+     * Releases a call which was cancelled before its outcome was known
+     */
+    synchronized void onCancel() {
+        inFlight--;
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    long getRejections() {
+        return rejections.sum();
+    }
+}
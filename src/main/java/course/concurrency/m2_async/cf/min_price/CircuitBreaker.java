@@ -0,0 +1,118 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of one shop.
+ * <p>
+ * While CLOSED the outcomes of the recent calls are kept, the breaker opens once the window is full
+ * and the failure rate reaches the threshold. An OPEN breaker skips the shop until the open interval
+ * has passed, then a single probe call is let through in HALF_OPEN state: its success closes the breaker,
+ * its failure opens it again. Requests read the state without locking while the breaker is closed.
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int windowSize;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private volatile State state = State.CLOSED;
+
+    // guarded by this
+    private final boolean[] failures;
+    private int count;
+    private int next;
+    private int failureCount;
+    private long openUntil;
+
+    /**
+     * @param nanoClock time the open interval is measured by
+     */
+    CircuitBreaker(int windowSize, double failureRateThreshold, long openNanos, LongSupplier nanoClock) {
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+        this.nanoClock = nanoClock;
+        this.failures = new boolean[windowSize];
+    }
+
+    /**
+     * @return true if the shop may be called, the caller must report the outcome then
+     */
+    boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && nanoClock.getAsLong() - openUntil >= 0) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset(State.CLOSED);
+        } else {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (count == windowSize && failureCount >= failureRateThreshold * windowSize) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Reports a call which was cancelled before its outcome was known
+     */
+    synchronized void onCancel() {
+        if (state == State.HALF_OPEN) {
+            // let the next request probe the shop
+            state = State.OPEN;
+            openUntil = nanoClock.getAsLong();
+        }
+    }
+
+    State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (count == windowSize) {
+            if (failures[next]) {
+                failureCount--;
+            }
+        } else {
+            count++;
+        }
+        failures[next] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        next = (next + 1) % windowSize;
+    }
+
+    private void open() {
+        reset(State.OPEN);
+        openUntil = nanoClock.getAsLong() + openNanos;
+    }
+
+    private void reset(State newState) {
+        count = 0;
+        next = 0;
+        failureCount = 0;
+        state = newState;
+    }
+}
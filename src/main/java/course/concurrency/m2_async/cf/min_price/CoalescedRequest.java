@@ -0,0 +1,62 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fan-out shared by the concurrent requests for the same item.
+ * Every waiter gets its own copy of the result, and the fan-out is cancelled
+ * once all the waiters have cancelled their copies. A request which has lost all its waiters
+ * cannot be joined anymore.
+ */
+final class CoalescedRequest {
+
+    private final CompletableFuture<Double> result = new CompletableFuture<>();
+    // the creator is the first waiter
+    private final AtomicInteger waiters = new AtomicInteger(1);
+    private volatile CompletableFuture<Double> fanOut;
+
+    /**
+     * Must be called by the creator before it takes its copy
+     *
+     * @param onDone runs before the waiters get the result
+     */
+    void start(CompletableFuture<Double> fanOut, Runnable onDone) {
+        this.fanOut = fanOut;
+        fanOut.whenComplete((price, throwable) -> {
+            onDone.run();
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(price);
+            }
+        });
+    }
+
+    /**
+     * @return false if every waiter has cancelled its copy
+     */
+    boolean tryJoin() {
+        int count;
+        do {
+            count = waiters.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!waiters.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * @return copy of the result for the creator or for a waiter which has joined
+     */
+    CompletableFuture<Double> newWaiter() {
+        CompletableFuture<Double> copy = result.copy();
+        copy.whenComplete((price, throwable) -> {
+            if (copy.isCancelled() && waiters.decrementAndGet() == 0) {
+                fanOut.cancel(false);
+            }
+        });
+        return copy;
+    }
+}
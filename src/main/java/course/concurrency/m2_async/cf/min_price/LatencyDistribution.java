@@ -0,0 +1,45 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a simulated shop call
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    /**
+     * @return latency in nanos, not negative
+     */
+    long nextNanos(Random random);
+
+    static LatencyDistribution constant(long millis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return random -> nanos;
+    }
+
+    static LatencyDistribution uniform(long minMillis, long maxMillis) {
+        if (minMillis < 0 || maxMillis <= minMillis) {
+            throw new IllegalArgumentException("Invalid latency range: " + minMillis + ", " + maxMillis);
+        }
+        long minNanos = TimeUnit.MILLISECONDS.toNanos(minMillis);
+        long rangeNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis) - minNanos;
+        return random -> minNanos + (long) (random.nextDouble() * rangeNanos);
+    }
+
+    static LatencyDistribution exponential(double meanMillis) {
+        double meanNanos = meanMillis * TimeUnit.MILLISECONDS.toNanos(1);
+        return random -> (long) (-meanNanos * Math.log(1 - random.nextDouble()));
+    }
+
+    /**
+     * Heavy-tailed latency: most calls are close to the median, a few are many times slower
+     *
+     * @param sigma standard deviation of the latency logarithm, the larger the longer the tail
+     */
+    static LatencyDistribution logNormal(double medianMillis, double sigma) {
+        double medianNanos = medianMillis * TimeUnit.MILLISECONDS.toNanos(1);
+        return random -> (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+    }
+}
@@ -0,0 +1,123 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Minimal price of one item: one {@link ShopSlot} per shop, completed as soon as the policy decides
+ * or every shop has answered or timed out. Shop calls still running by then are cancelled.
+ */
+final class MinPriceRequest {
+
+    final ShopCalls shopCalls;
+    final CompletableFuture<Double> result = new CompletableFuture<>();
+    final long deadlineNanos;
+
+    private final ResultPolicy policy;
+    private final DoubleConsumer onImprovement;
+    private final Queue<Future<?>> calls = new ConcurrentLinkedQueue<>();
+
+    // guarded by this
+    private int pending;
+    private int responded;
+    private double minPrice = Double.NaN;
+
+    /**
+     * @param onImprovement receives every price lower than the previous ones, may be null
+     */
+    MinPriceRequest(ShopCalls shopCalls, ResultPolicy policy, int shopCount, DoubleConsumer onImprovement) {
+        this.shopCalls = shopCalls;
+        this.policy = policy;
+        this.onImprovement = onImprovement;
+        this.deadlineNanos = shopCalls.scheduler.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ShopCalls.MAX_SHOP_RESPONSE_TIME);
+        this.pending = shopCount;
+        if (shopCount == 0) {
+            complete();
+        }
+    }
+
+    /**
+     * Calls the shops until the request is completed, a caller cancelling the result cancels the calls as well
+     */
+    void start(long itemId, Collection<Long> shopIds) {
+        result.whenComplete((price, throwable) -> {
+            if (throwable != null) {
+                cancelCalls();
+            }
+        });
+        for (Long shopId : shopIds) {
+            if (result.isDone()) {
+                break;
+            }
+            new ShopSlot(this, itemId, shopId).start();
+        }
+    }
+
+    /**
+     * A call rejected by the saturated executor is cancelled, so it is reported as any other call
+     */
+    void launch(ShopCall call) {
+        try {
+            if (call.slot.asyncRetriever != null) {
+                call.startAsync(call.slot.asyncRetriever);
+            } else {
+                shopCalls.executor.execute(call);
+            }
+        } catch (RejectedExecutionException e) {
+            shopCalls.rejectedCalls.increment();
+            call.cancel(false);
+            return;
+        }
+        calls.offer(call);
+        // the request could be completed before the call was added
+        if (result.isDone()) {
+            cancel(call);
+        }
+    }
+
+    void onPrice(double price) {
+        boolean decided;
+        boolean improved = false;
+        synchronized (this) {
+            pending--;
+            if (!Double.isNaN(price)) {
+                responded++;
+                improved = Double.isNaN(minPrice) || price < minPrice;
+                minPrice = improved ? price : minPrice;
+            }
+            decided = pending == 0 || policy.isDecided(responded, minPrice);
+        }
+        if (improved && onImprovement != null) {
+            onImprovement.accept(price);
+        }
+        if (decided) {
+            complete();
+        }
+    }
+
+    void complete() {
+        double price;
+        synchronized (this) {
+            price = minPrice;
+        }
+        if (result.complete(price)) {
+            calls.forEach(this::cancel);
+        }
+    }
+
+    private void cancelCalls() {
+        calls.forEach(this::cancel);
+    }
+
+    void cancel(Future<?> call) {
+        if (call.cancel(true)) {
+            shopCalls.cancelledCalls.increment();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subscription to the improving minimal prices of one request.
+ * <p>
+ * Prices are conflated: while the subscriber has no demand only the lowest price is kept,
+ * and it is replaced by the final price once the request is completed. Improvements are published
+ * in strictly decreasing order even if the shops answer concurrently. The final price is always
+ * the last element before onComplete. Signals are delivered by a single draining thread at a time.
+ */
+final class MinPriceSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super Double> subscriber;
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean isCancelled;
+    private volatile Runnable onCancel;
+
+    // guarded by this
+    private long demand;
+    private boolean hasPending;
+    private double pendingPrice;
+    private double lastPrice = Double.POSITIVE_INFINITY;
+    private boolean hasFinal;
+    private double finalPrice;
+    private Throwable error;
+
+    MinPriceSubscription(Flow.Subscriber<? super Double> subscriber) {
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * @param onCancel cancels the request once the subscriber is not interested anymore
+     */
+    void setOnCancel(Runnable onCancel) {
+        this.onCancel = onCancel;
+        if (isCancelled) {
+            onCancel.run();
+        }
+    }
+
+    boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * Publishes a price unless a lower one has already been offered
+     */
+    void offer(double price) {
+        synchronized (this) {
+            // improvements may be offered out of order by the threads of the shops
+            if (hasFinal || price >= lastPrice || (hasPending && price >= pendingPrice)) {
+                return;
+            }
+            hasPending = true;
+            pendingPrice = price;
+        }
+        drain();
+    }
+
+    void complete(double price) {
+        synchronized (this) {
+            // the final price is never higher than the pending one
+            hasPending = false;
+            hasFinal = true;
+            finalPrice = price;
+        }
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        synchronized (this) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Demand should be positive: " + n);
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        isCancelled = true;
+        Runnable action = onCancel;
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!isCancelled) {
+                double price;
+                boolean isFinal = false;
+                Throwable failure;
+                synchronized (this) {
+                    failure = error;
+                    if (failure == null) {
+                        if (demand == 0 || (!hasPending && !hasFinal)) {
+                            break;
+                        }
+                        demand--;
+                        if (hasPending) {
+                            price = pendingPrice;
+                            hasPending = false;
+                            lastPrice = price;
+                        } else {
+                            price = finalPrice;
+                            isFinal = true;
+                        }
+                    } else {
+                        price = Double.NaN;
+                    }
+                }
+                if (failure != null) {
+                    cancel();
+                    subscriber.onError(failure);
+                    return;
+                }
+                subscriber.onNext(price);
+                if (isFinal) {
+                    isCancelled = true;
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
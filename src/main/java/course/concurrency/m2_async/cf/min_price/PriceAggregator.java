@@ -1,41 +1,329 @@
 package course.concurrency.m2_async.cf.min_price;
 
 import java.util.Collection;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleConsumer;
 
+/**
+ * Long-lived service evaluating the minimal price among the shops.
+ * <p>
+ * All the requests share one bounded executor: a shop call waits in the queue when all the threads are busy
+ * and evaluates to NaN when the queue is full as well, so a burst of requests cannot create unbounded threads.
+ * Idle threads time out, the executor is released by {@link #shutdown()}.
+ * <p>
+ * Latencies of every shop are tracked, a shop which has not answered within its p90 latency
+ * gets a duplicate call and the first answer wins. The number of hedged calls in flight is capped.
+ * A call is cancelled after the shop timeout derived from its p99 latency, and a shop failing
+ * too often is skipped by its circuit breaker until a probe call succeeds.
+ * With a {@link PriceCache} set, cached prices are answered without calling the shops.
+ * With an {@link AsyncPriceRetriever} set, shop calls do not occupy the executor threads at all.
+ * Concurrent calls to every shop are limited by an AIMD {@link Bulkhead}, so a slow shop
+ * cannot occupy all the threads, the calls above the limit evaluate to NaN at once.
+ * Timeouts, hedges and latencies are measured by a {@link TaskScheduler}, which may run in virtual time.
+ * <p>
+ * The aggregator is a facade: a request for one item is a {@link MinPriceRequest} calling every shop
+ * through a {@link ShopSlot}, a request for several items is a {@link BatchRequest}, and the state shared
+ * by the calls of all the requests lives in {@link ShopCalls}.
+ */
 public class PriceAggregator {
 
-    private PriceRetriever priceRetriever = new PriceRetriever();
+    private static final int DEFAULT_MAX_THREADS = 256;
+    private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    private static final long KEEP_ALIVE_MILLIS = 10_000;
+
+    private final ShopCalls shopCalls;
 
     public void setPriceRetriever(PriceRetriever priceRetriever) {
-        this.priceRetriever = priceRetriever;
+        shopCalls.priceRetriever = priceRetriever;
     }
 
     private Collection<Long> shopIds = Set.of(10L, 45L, 66L, 345L, 234L, 333L, 67L, 123L, 768L);
 
-    private static final int MAX_SHOP_RESPONSE_TIME = 2950;
-
     public void setShops(Collection<Long> shopIds) {
         this.shopIds = shopIds;
     }
 
+    /**
+     * @param maxHedges max number of hedged calls in flight, 0 disables hedging
+     */
+    public void setMaxHedges(int maxHedges) {
+        shopCalls.hedgePermits = maxHedges > 0 ? new Semaphore(maxHedges) : null;
+    }
+
+    /**
+     * @param asyncRetriever retriever completing shop calls without occupying the executor threads,
+     *                       null to call the blocking {@link PriceRetriever}
+     */
+    public void setAsyncPriceRetriever(AsyncPriceRetriever asyncRetriever) {
+        shopCalls.asyncRetriever = asyncRetriever;
+    }
+
+    /**
+     * @param priceCache cache to answer from before calling the shops, null disables caching.
+     *                   The cache measures the ages by its own clock, in virtual time it should be
+     *                   the clock of the scheduler, see {@link #setPriceCache(int, long, long, TimeUnit)}
+     */
+    public void setPriceCache(PriceCache priceCache) {
+        shopCalls.priceCache = priceCache;
+    }
+
+    /**
+     * Creates a cache measuring the ages by the clock of the scheduler,
+     * so a simulation in virtual time does not mix it with the wall clock
+     */
+    public void setPriceCache(int capacity, long ttl, long refreshAfter, TimeUnit unit) {
+        setPriceCache(new PriceCache(capacity, ttl, refreshAfter, unit, shopCalls.scheduler::nanoTime));
+    }
+
+    /**
+     * @param breakerOpenMillis time to skip a failing shop before probing it again
+     */
+    public void setBreakerOpenMillis(long breakerOpenMillis) {
+        shopCalls.breakerOpenMillis = breakerOpenMillis;
+    }
+
+    /**
+     * @param maxShopConcurrency max number of concurrent calls to one shop, 0 disables the limits.
+     *                           Applies to the shops called for the first time after the change
+     */
+    public void setMaxShopConcurrency(int maxShopConcurrency) {
+        shopCalls.maxShopConcurrency = maxShopConcurrency;
+    }
+
+    private final Map<Long, CoalescedRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final LongAdder coalescedRequests = new LongAdder();
+
+    public PriceAggregator() {
+        this(DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param maxThreads    max number of shop calls executed at the same time
+     * @param queueCapacity max number of shop calls waiting for a thread
+     */
+    public PriceAggregator(int maxThreads, int queueCapacity) {
+        this(newExecutor(maxThreads, queueCapacity), new SystemTaskScheduler());
+    }
+
+    public PriceAggregator(ExecutorService executor) {
+        this(executor, new SystemTaskScheduler());
+    }
+
+    /**
+     * @param scheduler clock and timer of the shop timeouts, hedges and deadlines,
+     *                  a {@link VirtualScheduler} runs the aggregator in virtual time
+     */
+    public PriceAggregator(ExecutorService executor, TaskScheduler scheduler) {
+        this.shopCalls = new ShopCalls(executor, scheduler);
+    }
+
+    private static ExecutorService newExecutor(int maxThreads, int queueCapacity) {
+        // core size equals max size, otherwise the pool grows only after the queue is full
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueCapacity));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Blocks until the price is evaluated. With a {@link VirtualScheduler} it must not be called
+     * on the thread advancing the scheduler: the deadlines never come and the call never returns
+     */
     public double getMinPrice(long itemId) {
-        ExecutorService executorService = Executors.newCachedThreadPool();
-
-        List<CompletableFuture<Double>> pricesCfs = shopIds.stream()
-                .map(shopId -> CompletableFuture
-                        .supplyAsync(() -> priceRetriever.getPrice(itemId, shopId), executorService)
-                        .exceptionally(throwable -> Double.NaN)
-                        .completeOnTimeout(Double.NaN, MAX_SHOP_RESPONSE_TIME, TimeUnit.MILLISECONDS))
-                .collect(Collectors.toList());
-        CompletableFuture.allOf(pricesCfs.toArray(CompletableFuture[]::new)).join();
-
-        return pricesCfs.stream()
-                .map(CompletableFuture::join)
-                .min(Double::compareTo)
-                .orElse(Double.NaN);
+        return getMinPrice(itemId, ResultPolicy.allOrDeadline());
+    }
+
+    public double getMinPrice(long itemId, ResultPolicy policy) {
+        return getMinPriceAsync(itemId, policy).join();
+    }
+
+    /**
+     * Sends the item to every shop and completes with the minimal price as soon as the policy decides
+     * or every shop has answered or timed out. Shop calls still running by then are cancelled.
+     * <p>
+     * Concurrent requests for the same item with the default policy share one fan-out,
+     * every caller gets its own copy of the shared future. The shared shop calls are cancelled
+     * only when every caller has cancelled its copy.
+     */
+    public CompletableFuture<Double> getMinPriceAsync(long itemId, ResultPolicy policy) {
+        if (policy != ResultPolicy.allOrDeadline()) {
+            return fanOut(itemId, policy);
+        }
+        while (true) {
+            CoalescedRequest shared = pendingRequests.get(itemId);
+            if (shared == null) {
+                CoalescedRequest created = new CoalescedRequest();
+                shared = pendingRequests.putIfAbsent(itemId, created);
+                if (shared == null) {
+                    // later requests should not get the price which is already evaluated
+                    created.start(fanOut(itemId, policy), () -> pendingRequests.remove(itemId, created));
+                    return created.newWaiter();
+                }
+            }
+            if (shared.tryJoin()) {
+                coalescedRequests.increment();
+                return shared.newWaiter();
+            }
+            // every caller has cancelled the shared fan-out, it is being removed
+            pendingRequests.remove(itemId, shared);
+        }
+    }
+
+    /**
+     * Publishes every price lower than the previous ones as soon as a shop answers
+     * and then the final price evaluated by {@link #getMinPrice(long)}. Every subscriber gets its own fan-out.
+     * While the subscriber has no demand the intermediate prices are conflated into the lowest one.
+     */
+    public Flow.Publisher<Double> getMinPricePublisher(long itemId) {
+        return subscriber -> {
+            MinPriceSubscription subscription = new MinPriceSubscription(subscriber);
+            subscriber.onSubscribe(subscription);
+            if (subscription.isCancelled()) {
+                return;
+            }
+            CompletableFuture<Double> result = fanOut(itemId, ResultPolicy.allOrDeadline(), subscription::offer);
+            result.whenComplete((price, throwable) -> {
+                if (throwable == null) {
+                    subscription.complete(price);
+                }
+            });
+            subscription.setOnCancel(() -> result.cancel(false));
+        };
+    }
+
+    private CompletableFuture<Double> fanOut(long itemId, ResultPolicy policy) {
+        return fanOut(itemId, policy, null);
+    }
+
+    private CompletableFuture<Double> fanOut(long itemId, ResultPolicy policy, DoubleConsumer onImprovement) {
+        Collection<Long> shops = shopIds;
+        MinPriceRequest request = new MinPriceRequest(shopCalls, policy, shops.size(), onImprovement);
+        request.start(itemId, shops);
+        return request.result;
+    }
+
+    public double[] getMinPrices(long[] itemIds) {
+        return getMinPricesAsync(itemIds).join();
+    }
+
+    /**
+     * Sends all the items to every shop with one batch call per shop
+     *
+     * @return minimal prices in the order of itemIds, NaN for items no shop has answered by the deadline
+     */
+    public CompletableFuture<double[]> getMinPricesAsync(long[] itemIds) {
+        Collection<Long> shops = shopIds;
+        BatchRequest request = new BatchRequest(shopCalls, itemIds, shops.size());
+        Future<?> deadline = shopCalls.scheduler.schedule(request::complete, ShopCalls.MAX_SHOP_RESPONSE_TIME,
+                TimeUnit.MILLISECONDS);
+        request.result.whenComplete((prices, throwable) -> deadline.cancel(false));
+
+        for (Long shopId : shops) {
+            request.submit(shopId);
+        }
+        return request.result;
+    }
+
+    /**
+     * @return number of shop calls being executed right now
+     */
+    public int getInFlightCalls() {
+        return shopCalls.inFlightCalls.get();
+    }
+
+    /**
+     * @return number of shop calls rejected because the executor was saturated
+     */
+    public long getRejectedCalls() {
+        return shopCalls.rejectedCalls.sum();
+    }
+
+    /**
+     * @return number of shop calls cancelled because the price was known without them
+     */
+    public long getCancelledCalls() {
+        return shopCalls.cancelledCalls.sum();
+    }
+
+    /**
+     * @return number of duplicate calls sent to the shops not answered within their p90 latency
+     */
+    public long getHedgesSent() {
+        return shopCalls.hedgesSent.sum();
+    }
+
+    /**
+     * @return number of hedged calls which answered before the primary ones
+     */
+    public long getHedgesWon() {
+        return shopCalls.hedgesWon.sum();
+    }
+
+    /**
+     * @return number of hedged calls not sent because too many of them were in flight
+     */
+    public long getHedgesSkipped() {
+        return shopCalls.hedgesSkipped.sum();
+    }
+
+    /**
+     * @return number of shop calls cancelled after the shop timeout
+     */
+    public long getTimedOutCalls() {
+        return shopCalls.timedOutCalls.sum();
+    }
+
+    /**
+     * @return number of shop calls skipped because the shop circuit breaker was open
+     */
+    public long getSkippedCalls() {
+        return shopCalls.skippedCalls.sum();
+    }
+
+    /**
+     * @return number of requests which joined the fan-out of a concurrent request for the same item
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.sum();
+    }
+
+    /**
+     * @return number of calls refreshing the cached prices in background
+     */
+    public long getRefreshCalls() {
+        return shopCalls.refreshCalls.sum();
+    }
+
+    /**
+     * @return number of shop calls rejected because too many calls to the same shop were in flight
+     */
+    public long getBulkheadRejections() {
+        return shopCalls.getBulkheadRejections();
+    }
+
+    public long getBulkheadRejections(long shopId) {
+        return shopCalls.getBulkheadRejections(shopId);
+    }
+
+    /**
+     * @return current limit of concurrent calls to the shop or -1 if it is not limited
+     */
+    public int getShopConcurrencyLimit(long shopId) {
+        return shopCalls.getShopConcurrencyLimit(shopId);
+    }
+
+    /**
+     * @return timeout of the next call to the shop: a multiple of its p99 latency,
+     * but not longer than MAX_SHOP_RESPONSE_TIME
+     */
+    public long getShopTimeoutMillis(long shopId) {
+        return TimeUnit.NANOSECONDS.toMillis(shopCalls.shopTimeoutNanos(shopCalls.shopStats(shopId)));
+    }
+
+    public void shutdown() {
+        shopCalls.shutdown();
     }
 }
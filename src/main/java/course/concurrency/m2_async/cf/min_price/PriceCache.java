@@ -0,0 +1,219 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Size-bounded cache of shop prices keyed by a primitive (itemId, shopId) pair.
+ * <p>
+ * The cache is set-associative: a key may be kept only in one of the WAYS slots of its set,
+ * an insert into a full set evicts an expired or the oldest entry. Entries live in flat primitive arrays,
+ * so keys are never boxed. Sets are guarded by striped locks, lookups use optimistic reads.
+ * <p>
+ * An entry older than refreshAfter is still returned, and the first reader which sees it
+ * is allowed to refresh it, so hot entries are replaced before they expire.
+ * Ages are measured by the clock given to the cache, {@link System#nanoTime()} by default.
+ */
+public class PriceCache {
+
+    private static final int WAYS = 8;
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+
+    private final LongSupplier clock;
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final int setMask;
+    private final StampedLock[] locks = new StampedLock[STRIPES];
+
+    private final long[] itemIds;
+    private final long[] shopIds;
+    private final double[] prices;
+    private final long[] writtenAt;
+    private final boolean[] occupied;
+    private final boolean[] refreshing;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity     max number of entries, rounded up to a power of two not less than WAYS
+     * @param ttl          time after which an entry is not returned
+     * @param refreshAfter time after which an entry should be refreshed, less than ttl
+     */
+    public PriceCache(int capacity, long ttl, long refreshAfter, TimeUnit unit) {
+        this(capacity, ttl, refreshAfter, unit, System::nanoTime);
+    }
+
+    /**
+     * @param clock time in nanos, for example {@link TaskScheduler#nanoTime()} of a simulation in virtual time
+     */
+    public PriceCache(int capacity, long ttl, long refreshAfter, TimeUnit unit, LongSupplier clock) {
+        if (capacity <= 0 || refreshAfter > ttl) {
+            throw new IllegalArgumentException("Invalid cache parameters: " + capacity + ", " + ttl + ", " + refreshAfter);
+        }
+        int sets = Integer.highestOneBit((capacity + WAYS - 1) / WAYS * 2 - 1);
+        this.setMask = sets - 1;
+        this.clock = clock;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.refreshAfterNanos = unit.toNanos(refreshAfter);
+
+        int size = sets * WAYS;
+        this.itemIds = new long[size];
+        this.shopIds = new long[size];
+        this.prices = new double[size];
+        this.writtenAt = new long[size];
+        this.occupied = new boolean[size];
+        this.refreshing = new boolean[size];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * @return cached price or NaN if there is no entry or it is expired
+     */
+    public double get(long itemId, long shopId) {
+        int set = setFor(itemId, shopId);
+        StampedLock lock = lockFor(set);
+        long stamp = lock.tryOptimisticRead();
+        double price = read(set, itemId, shopId);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                price = read(set, itemId, shopId);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (Double.isNaN(price)) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return price;
+    }
+
+    /**
+     * @return true if the entry is older than refreshAfter and nobody refreshes it yet,
+     * the caller must {@link #put} the new price or {@link #cancelRefresh} then
+     */
+    public boolean tryStartRefresh(long itemId, long shopId) {
+        int set = setFor(itemId, shopId);
+        StampedLock lock = lockFor(set);
+        long stamp = lock.tryOptimisticRead();
+        boolean isStale = indexOfStale(set, itemId, shopId, clock.getAsLong()) >= 0;
+        if (lock.validate(stamp) && !isStale) {
+            return false;
+        }
+        stamp = lock.writeLock();
+        try {
+            int index = indexOfStale(set, itemId, shopId, clock.getAsLong());
+            if (index < 0) {
+                return false;
+            }
+            refreshing[index] = true;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void cancelRefresh(long itemId, long shopId) {
+        int set = setFor(itemId, shopId);
+        StampedLock lock = lockFor(set);
+        long stamp = lock.writeLock();
+        try {
+            int index = indexOf(set, itemId, shopId);
+            if (index >= 0) {
+                refreshing[index] = false;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void put(long itemId, long shopId, double price) {
+        int set = setFor(itemId, shopId);
+        StampedLock lock = lockFor(set);
+        long stamp = lock.writeLock();
+        try {
+            long now = clock.getAsLong();
+            int index = indexOf(set, itemId, shopId);
+            if (index < 0) {
+                index = victim(set, now);
+            }
+            itemIds[index] = itemId;
+            shopIds[index] = shopId;
+            prices[index] = price;
+            writtenAt[index] = now;
+            occupied[index] = true;
+            refreshing[index] = false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private double read(int set, long itemId, long shopId) {
+        int index = indexOf(set, itemId, shopId);
+        if (index < 0 || clock.getAsLong() - writtenAt[index] >= ttlNanos) {
+            return Double.NaN;
+        }
+        return prices[index];
+    }
+
+    private int indexOfStale(int set, long itemId, long shopId, long now) {
+        int index = indexOf(set, itemId, shopId);
+        if (index < 0 || refreshing[index]) {
+            return -1;
+        }
+        long age = now - writtenAt[index];
+        return age >= refreshAfterNanos && age < ttlNanos ? index : -1;
+    }
+
+    private int indexOf(int set, long itemId, long shopId) {
+        int from = set * WAYS;
+        for (int i = from; i < from + WAYS; i++) {
+            if (occupied[i] && itemIds[i] == itemId && shopIds[i] == shopId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a free slot, an expired one or the oldest one
+     */
+    private int victim(int set, long now) {
+        int from = set * WAYS;
+        int oldest = from;
+        for (int i = from; i < from + WAYS; i++) {
+            if (!occupied[i] || now - writtenAt[i] >= ttlNanos) {
+                return i;
+            }
+            if (writtenAt[i] - writtenAt[oldest] < 0) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    private int setFor(long itemId, long shopId) {
+        long hash = itemId * 0x9E3779B97F4A7C15L + shopId * 0xC2B2AE3D27D4EB4FL;
+        hash ^= hash >>> 29;
+        return (int) hash & setMask;
+    }
+
+    private StampedLock lockFor(int set) {
+        return locks[set & (STRIPES - 1)];
+    }
+}
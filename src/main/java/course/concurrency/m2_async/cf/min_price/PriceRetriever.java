@@ -10,6 +10,21 @@ public class PriceRetriever {
         return ThreadLocalRandom.current().nextDouble(1000);
     }
 
+    /**
+     * Retrieves prices of all the items with one request to the shop
+     *
+     * @return prices in the order of itemIds, NaN for the items the shop does not sell
+     */
+    public double[] getPrices(long[] itemIds, long shopId) {
+        int delay = ThreadLocalRandom.current().nextInt(10);
+        sleep(delay);
+        double[] prices = new double[itemIds.length];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = ThreadLocalRandom.current().nextDouble(1000);
+        }
+        return prices;
+    }
+
     private void sleep(int delay) {
         try { Thread.sleep(delay * 1000L);
         } catch (InterruptedException e) {}
@@ -0,0 +1,43 @@
+package course.concurrency.m2_async.cf.min_price;
+
+/**
+ * Decides when the minimal price is known without waiting for the rest of the shops.
+ * The price is always evaluated once every shop has answered or the deadline has passed.
+ */
+@FunctionalInterface
+public interface ResultPolicy {
+
+    /**
+     * @param responded number of shops answered with a price so far
+     * @param minPrice  minimal price among them or NaN
+     * @return true if the remaining shops can be skipped
+     */
+    boolean isDecided(int responded, double minPrice);
+
+    ResultPolicy ALL_OR_DEADLINE = (responded, minPrice) -> false;
+
+    /**
+     * Waits for every shop or the deadline, whichever comes first.
+     * Concurrent requests for the same item with this policy are coalesced
+     */
+    static ResultPolicy allOrDeadline() {
+        return ALL_OR_DEADLINE;
+    }
+
+    /**
+     * Takes the minimal price among the first k shops answered with a price
+     */
+    static ResultPolicy firstResponses(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Number of responses should be positive: " + k);
+        }
+        return (responded, minPrice) -> responded >= k;
+    }
+
+    /**
+     * Stops as soon as any shop offers a price below the threshold
+     */
+    static ResultPolicy belowThreshold(double threshold) {
+        return (responded, minPrice) -> minPrice < threshold;
+    }
+}
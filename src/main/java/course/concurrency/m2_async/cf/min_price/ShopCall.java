@@ -0,0 +1,102 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reports the price to its slot once completed, so a call deciding the request is never cancelled by it
+ */
+final class ShopCall extends FutureTask<Double> {
+
+    final ShopSlot slot;
+    final Semaphore hedgePermits;
+    private final ShopCalls shopCalls;
+    // guarded by this
+    private CompletableFuture<Double> asyncPrice;
+    private boolean isFinished;
+
+    /**
+     * @param hedgePermits permits to release once a hedged call is completed, null for a primary call
+     */
+    ShopCall(ShopSlot slot, Semaphore hedgePermits) {
+        super(() -> retrieve(slot));
+        this.slot = slot;
+        this.hedgePermits = hedgePermits;
+        this.shopCalls = slot.shopCalls;
+    }
+
+    private static Double retrieve(ShopSlot slot) {
+        ShopCalls shopCalls = slot.shopCalls;
+        shopCalls.inFlightCalls.incrementAndGet();
+        try {
+            long start = shopCalls.scheduler.nanoTime();
+            Double price = shopCalls.priceRetriever.getPrice(slot.itemId, slot.shopId);
+            slot.stats.recordLatency(shopCalls.scheduler.nanoTime() - start);
+            return price;
+        } finally {
+            shopCalls.inFlightCalls.decrementAndGet();
+        }
+    }
+
+    /**
+     * Completes the call by the asynchronous retriever instead of running it on the executor
+     */
+    void startAsync(AsyncPriceRetriever retriever) {
+        shopCalls.inFlightCalls.incrementAndGet();
+        long start = shopCalls.scheduler.nanoTime();
+        CompletableFuture<Double> price = retriever.getPriceAsync(slot.itemId, slot.shopId);
+        boolean isCancelled;
+        synchronized (this) {
+            asyncPrice = price;
+            isCancelled = isFinished;
+        }
+        if (isCancelled) {
+            release(price);
+            return;
+        }
+        price.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                setException(throwable);
+            } else {
+                slot.stats.recordLatency(shopCalls.scheduler.nanoTime() - start);
+                set(value);
+            }
+        });
+    }
+
+    @Override
+    protected void done() {
+        CompletableFuture<Double> price;
+        synchronized (this) {
+            isFinished = true;
+            price = asyncPrice;
+        }
+        // the call cancelled before the retriever has returned its future is released by startAsync
+        if (price != null) {
+            release(price);
+        }
+        reportPrice();
+    }
+
+    private void release(CompletableFuture<Double> price) {
+        shopCalls.inFlightCalls.decrementAndGet();
+        // let the retriever release the resources of the call
+        price.cancel(false);
+    }
+
+    private void reportPrice() {
+        double price = Double.NaN;
+        if (!isCancelled()) {
+            try {
+                Double value = get();
+                if (value != null) {
+                    price = value;
+                }
+            } catch (InterruptedException | ExecutionException ignored) {
+            }
+        }
+        slot.onResult(this, price);
+    }
+}
@@ -0,0 +1,186 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shop call pipeline shared by all the requests of one aggregator: the executor and the retrievers,
+ * latencies, circuit breakers and bulkheads of every shop, the hedge permits and the call counters.
+ * The settings are read by every new call, so they may be changed while the aggregator is in use.
+ */
+final class ShopCalls {
+
+    static final int MAX_SHOP_RESPONSE_TIME = 2950;
+
+    private static final int DEFAULT_MAX_HEDGES = 16;
+
+    private static final int MIN_SHOP_RESPONSE_TIME = 50;
+    private static final int SHOP_TIMEOUT_TO_P99 = 2;
+
+    private static final int BREAKER_WINDOW = 20;
+    private static final double BREAKER_FAILURE_RATE = 0.5;
+    private static final long DEFAULT_BREAKER_OPEN_MILLIS = 5_000;
+
+    private static final int DEFAULT_MAX_SHOP_CONCURRENCY = 64;
+    private static final int MIN_SHOP_CONCURRENCY = 2;
+
+    final ExecutorService executor;
+    final TaskScheduler scheduler;
+
+    PriceRetriever priceRetriever = new PriceRetriever();
+    volatile AsyncPriceRetriever asyncRetriever;
+    volatile PriceCache priceCache;
+    // null disables hedging
+    volatile Semaphore hedgePermits = new Semaphore(DEFAULT_MAX_HEDGES);
+    volatile long breakerOpenMillis = DEFAULT_BREAKER_OPEN_MILLIS;
+    // 0 disables the bulkheads
+    volatile int maxShopConcurrency = DEFAULT_MAX_SHOP_CONCURRENCY;
+
+    final AtomicInteger inFlightCalls = new AtomicInteger();
+    final LongAdder rejectedCalls = new LongAdder();
+    final LongAdder cancelledCalls = new LongAdder();
+    final LongAdder hedgesSent = new LongAdder();
+    final LongAdder hedgesWon = new LongAdder();
+    final LongAdder hedgesSkipped = new LongAdder();
+    final LongAdder timedOutCalls = new LongAdder();
+    final LongAdder skippedCalls = new LongAdder();
+    final LongAdder refreshCalls = new LongAdder();
+
+    private final Map<Long, ShopStats> shopStats = new ConcurrentHashMap<>();
+    private final Map<Long, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<Long, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    ShopCalls(ExecutorService executor, TaskScheduler scheduler) {
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    ShopStats shopStats(long shopId) {
+        return shopStats.computeIfAbsent(shopId, id -> new ShopStats());
+    }
+
+    /**
+     * @return timeout of the next call to the shop: a multiple of its p99 latency,
+     * but not longer than MAX_SHOP_RESPONSE_TIME
+     */
+    long shopTimeoutNanos(ShopStats stats) {
+        long maxNanos = TimeUnit.MILLISECONDS.toNanos(MAX_SHOP_RESPONSE_TIME);
+        long p99 = stats.getP99();
+        if (p99 < 0) {
+            return maxNanos;
+        }
+        return Math.min(maxNanos, Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_SHOP_RESPONSE_TIME), p99 * SHOP_TIMEOUT_TO_P99));
+    }
+
+    CircuitBreaker breaker(long shopId) {
+        return breakers.computeIfAbsent(shopId, id -> new CircuitBreaker(
+                BREAKER_WINDOW, BREAKER_FAILURE_RATE, TimeUnit.MILLISECONDS.toNanos(breakerOpenMillis), scheduler::nanoTime));
+    }
+
+    /**
+     * @return bulkhead of the shop or null if the calls are not limited
+     */
+    Bulkhead bulkhead(long shopId) {
+        Bulkhead bulkhead = bulkheads.get(shopId);
+        if (bulkhead != null) {
+            return bulkhead;
+        }
+        int maxLimit = maxShopConcurrency;
+        return maxLimit > 0
+                ? bulkheads.computeIfAbsent(shopId, id -> new Bulkhead(MIN_SHOP_CONCURRENCY, maxLimit))
+                : null;
+    }
+
+    long getBulkheadRejections() {
+        return bulkheads.values().stream().mapToLong(Bulkhead::getRejections).sum();
+    }
+
+    long getBulkheadRejections(long shopId) {
+        Bulkhead bulkhead = bulkheads.get(shopId);
+        return bulkhead == null ? 0 : bulkhead.getRejections();
+    }
+
+    int getShopConcurrencyLimit(long shopId) {
+        Bulkhead bulkhead = bulkheads.get(shopId);
+        return bulkhead == null ? -1 : bulkhead.getLimit();
+    }
+
+    /**
+     * Releases the bulkhead permit of a call: timed out and failed calls decrease the limit,
+     * cancelled ones say nothing about the shop
+     */
+    static void release(Bulkhead bulkhead, boolean isSuccess, boolean isDrop) {
+        if (bulkhead == null) {
+            return;
+        }
+        if (isSuccess) {
+            bulkhead.onSuccess();
+        } else if (isDrop) {
+            bulkhead.onDrop();
+        } else {
+            bulkhead.onCancel();
+        }
+    }
+
+    /**
+     * Calls the shop in background and replaces the cached price, the requests do not wait for it
+     */
+    void refresh(PriceCache cache, long itemId, long shopId) {
+        Bulkhead bulkhead = bulkhead(shopId);
+        if (bulkhead != null && !bulkhead.tryAcquire()) {
+            cache.cancelRefresh(itemId, shopId);
+            return;
+        }
+        AsyncPriceRetriever retriever = asyncRetriever;
+        if (retriever != null) {
+            refreshCalls.increment();
+            retriever.getPriceAsync(itemId, shopId).whenComplete((price, throwable) -> {
+                boolean isSuccess = throwable == null && price != null;
+                release(bulkhead, isSuccess, !isSuccess);
+                if (isSuccess) {
+                    cache.put(itemId, shopId, price);
+                } else {
+                    cache.cancelRefresh(itemId, shopId);
+                }
+            });
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                double price = Double.NaN;
+                inFlightCalls.incrementAndGet();
+                try {
+                    Double value = priceRetriever.getPrice(itemId, shopId);
+                    if (value != null) {
+                        price = value;
+                    }
+                } catch (RuntimeException ignored) {
+                } finally {
+                    inFlightCalls.decrementAndGet();
+                    release(bulkhead, !Double.isNaN(price), Double.isNaN(price));
+                    if (Double.isNaN(price)) {
+                        cache.cancelRefresh(itemId, shopId);
+                    } else {
+                        cache.put(itemId, shopId, price);
+                    }
+                }
+            });
+            refreshCalls.increment();
+        } catch (RejectedExecutionException e) {
+            rejectedCalls.increment();
+            release(bulkhead, false, false);
+            cache.cancelRefresh(itemId, shopId);
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdown();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,181 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls to one shop within a request: the primary call and a hedged one sent if the shop
+ * has not answered within its p90 latency. The first price wins, the other call is cancelled.
+ * A failure is reported only if there is no other call which may still answer.
+ * Both calls are cancelled once the shop timeout has passed, the outcome goes to the shop circuit breaker.
+ */
+final class ShopSlot {
+
+    final long itemId;
+    final long shopId;
+    final ShopStats stats;
+    final AsyncPriceRetriever asyncRetriever;
+    final ShopCalls shopCalls;
+
+    private final MinPriceRequest request;
+    private final CircuitBreaker breaker;
+    private final Bulkhead bulkhead;
+    private final PriceCache cache;
+    private long startNanos;
+
+    // guarded by this
+    private int outstanding;
+    private boolean answered;
+    private boolean timedOut;
+    private boolean isAdaptiveTimeout;
+    private ShopCall primary;
+    private ShopCall hedge;
+    private Future<?> timeout;
+
+    ShopSlot(MinPriceRequest request, long itemId, long shopId) {
+        this.request = request;
+        this.shopCalls = request.shopCalls;
+        this.itemId = itemId;
+        this.shopId = shopId;
+        this.stats = shopCalls.shopStats(shopId);
+        this.breaker = shopCalls.breaker(shopId);
+        this.bulkhead = shopCalls.bulkhead(shopId);
+        this.cache = shopCalls.priceCache;
+        this.asyncRetriever = shopCalls.asyncRetriever;
+    }
+
+    void start() {
+        if (cache != null) {
+            double cachedPrice = cache.get(itemId, shopId);
+            if (!Double.isNaN(cachedPrice)) {
+                if (cache.tryStartRefresh(itemId, shopId)) {
+                    shopCalls.refresh(cache, itemId, shopId);
+                }
+                request.onPrice(cachedPrice);
+                return;
+            }
+        }
+        // a shop which has too many calls in flight fails fast
+        if (bulkhead != null && !bulkhead.tryAcquire()) {
+            request.onPrice(Double.NaN);
+            return;
+        }
+        if (!breaker.tryAcquire()) {
+            shopCalls.skippedCalls.increment();
+            ShopCalls.release(bulkhead, false, false);
+            request.onPrice(Double.NaN);
+            return;
+        }
+        // the shop timeout never exceeds the deadline of the whole request
+        startNanos = shopCalls.scheduler.nanoTime();
+        long shopTimeoutNanos = shopCalls.shopTimeoutNanos(stats);
+        long timeoutNanos = Math.min(shopTimeoutNanos, request.deadlineNanos - startNanos);
+        ShopCall call = new ShopCall(this, null);
+        synchronized (this) {
+            outstanding = 1;
+            primary = call;
+            isAdaptiveTimeout = shopTimeoutNanos < TimeUnit.MILLISECONDS.toNanos(ShopCalls.MAX_SHOP_RESPONSE_TIME);
+            timeout = shopCalls.scheduler.schedule(this::onTimeout, timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        request.launch(call);
+
+        long hedgeDelay = stats.getP90();
+        if (hedgeDelay >= 0 && hedgeDelay < timeoutNanos && shopCalls.hedgePermits != null) {
+            shopCalls.scheduler.schedule(this::sendHedge, hedgeDelay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void sendHedge() {
+        Semaphore permits = shopCalls.hedgePermits;
+        if (permits == null || request.result.isDone()) {
+            return;
+        }
+        ShopCall call = new ShopCall(this, permits);
+        synchronized (this) {
+            if (answered || timedOut) {
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                shopCalls.hedgesSkipped.increment();
+                return;
+            }
+            if (bulkhead != null && !bulkhead.tryAcquire()) {
+                permits.release();
+                shopCalls.hedgesSkipped.increment();
+                return;
+            }
+            outstanding++;
+            hedge = call;
+        }
+        shopCalls.hedgesSent.increment();
+        request.launch(call);
+    }
+
+    private void onTimeout() {
+        ShopCall primaryCall;
+        ShopCall hedgeCall;
+        synchronized (this) {
+            if (answered) {
+                return;
+            }
+            timedOut = true;
+            primaryCall = primary;
+            hedgeCall = hedge;
+        }
+        shopCalls.timedOutCalls.increment();
+        // the shop latency is at least the timeout, otherwise the percentiles would be evaluated
+        // by the fast answers only and the timeout would keep shrinking
+        stats.recordLatency(shopCalls.scheduler.nanoTime() - startNanos);
+        primaryCall.cancel(true);
+        if (hedgeCall != null) {
+            hedgeCall.cancel(true);
+        }
+    }
+
+    void onResult(ShopCall call, double price) {
+        if (call.hedgePermits != null) {
+            call.hedgePermits.release();
+        }
+        ShopCall other = null;
+        boolean isReported = false;
+        boolean isTimedOut;
+        boolean isFailure = false;
+        synchronized (this) {
+            outstanding--;
+            isTimedOut = timedOut;
+            if (!answered && (!Double.isNaN(price) || outstanding == 0)) {
+                answered = true;
+                isReported = true;
+                other = call == primary ? hedge : primary;
+                // calls cancelled by the request or rejected by the executor say nothing about the shop
+                // a shop slower than its p99 is not a failing one yet, it fails if it misses the deadline
+                isFailure = timedOut ? !isAdaptiveTimeout : !call.isCancelled();
+            }
+        }
+        // every call holds its own permit, even the one which lost the race
+        ShopCalls.release(bulkhead, !Double.isNaN(price), Double.isNaN(price) && (isTimedOut || !call.isCancelled()));
+        if (!isReported) {
+            return;
+        }
+        timeout.cancel(false);
+
+        if (!Double.isNaN(price)) {
+            breaker.onSuccess();
+            if (cache != null) {
+                cache.put(itemId, shopId, price);
+            }
+            if (call.hedgePermits != null) {
+                shopCalls.hedgesWon.increment();
+            }
+        } else if (isFailure) {
+            breaker.onFailure();
+        } else {
+            breaker.onCancel();
+        }
+        if (other != null) {
+            request.cancel(other);
+        }
+        request.onPrice(price);
+    }
+}
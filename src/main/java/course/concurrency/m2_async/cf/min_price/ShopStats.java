@@ -0,0 +1,57 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the recent calls to one shop, a timed out call is recorded with its timeout.
+ * <p>
+ * The samples are kept in a ring buffer, percentiles are re-evaluated only after
+ * a number of new samples, so a request reads the cached values without sorting.
+ */
+final class ShopStats {
+
+    private static final int WINDOW = 128;
+    private static final int MIN_SAMPLES = 20;
+    private static final int REFRESH_INTERVAL = 16;
+
+    private final long[] latencies = new long[WINDOW];
+    private int count;
+    private int next;
+    private int sinceRefresh;
+
+    private volatile long p90 = -1;
+    private volatile long p99 = -1;
+
+    synchronized void recordLatency(long nanos) {
+        latencies[next] = nanos;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+        if (count >= MIN_SAMPLES && (++sinceRefresh >= REFRESH_INTERVAL || p90 < 0)) {
+            sinceRefresh = 0;
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            p90 = percentile(sorted, 0.9);
+            p99 = percentile(sorted, 0.99);
+        }
+    }
+
+    /**
+     * @return p90 latency in nanos or -1 if there are not enough samples yet
+     */
+    long getP90() {
+        return p90;
+    }
+
+    /**
+     * @return p99 latency in nanos or -1 if there are not enough samples yet
+     */
+    long getP99() {
+        return p99;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,70 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Non-blocking counterpart of {@link PriceRetriever}: a call is a task of the shared scheduler
+ * which completes the price after a random delay, so calls in flight occupy no threads.
+ * <p>
+ * With a {@link VirtualScheduler} and a fixed seed the delays and prices are the same on every run,
+ * so the aggregator can be load tested with thousands of shops in no real time.
+ */
+public class SimulatedAsyncPriceRetriever implements AsyncPriceRetriever {
+
+    private final TaskScheduler scheduler;
+    private final boolean isOwnScheduler;
+    private final LongFunction<LatencyDistribution> shopLatencies;
+    private final Random random;
+
+    public SimulatedAsyncPriceRetriever() {
+        this(10_000);
+    }
+
+    public SimulatedAsyncPriceRetriever(long maxDelayMillis) {
+        this(new SystemTaskScheduler(), true, shopId -> LatencyDistribution.uniform(0, maxDelayMillis), new Random());
+    }
+
+    /**
+     * @param scheduler     scheduler completing the calls, usually the one of the aggregator
+     * @param shopLatencies latency distribution of every shop by its id
+     * @param seed          seed of the delays and prices
+     */
+    public SimulatedAsyncPriceRetriever(TaskScheduler scheduler, LongFunction<LatencyDistribution> shopLatencies, long seed) {
+        this(scheduler, false, shopLatencies, new Random(seed));
+    }
+
+    private SimulatedAsyncPriceRetriever(TaskScheduler scheduler, boolean isOwnScheduler,
+                                         LongFunction<LatencyDistribution> shopLatencies, Random random) {
+        this.scheduler = scheduler;
+        this.isOwnScheduler = isOwnScheduler;
+        this.shopLatencies = shopLatencies;
+        this.random = random;
+    }
+
+    @Override
+    public CompletableFuture<Double> getPriceAsync(long itemId, long shopId) {
+        CompletableFuture<Double> price = new CompletableFuture<>();
+        long delay = shopLatencies.apply(shopId).nextNanos(random);
+        double value = random.nextDouble() * 1000;
+        Future<?> answer = scheduler.schedule(() -> price.complete(value), delay, TimeUnit.NANOSECONDS);
+        price.whenComplete((result, throwable) -> {
+            if (price.isCancelled()) {
+                answer.cancel(false);
+            }
+        });
+        return price;
+    }
+
+    /**
+     * Shuts down the scheduler unless it was passed to the constructor
+     */
+    public void shutdown() {
+        if (isOwnScheduler) {
+            scheduler.shutdown();
+        }
+    }
+}
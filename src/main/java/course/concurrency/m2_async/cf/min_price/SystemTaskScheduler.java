@@ -0,0 +1,33 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Real time scheduler running the tasks on a single timer thread
+ */
+public class SystemTaskScheduler implements TaskScheduler {
+
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+
+    public SystemTaskScheduler() {
+        // shop timeouts are cancelled on every answer, they should not pile up in the queue
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(task, delay, unit);
+    }
+
+    @Override
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,26 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock and timer of the aggregator: shop timeouts, hedges, deadlines and latencies are all measured by it.
+ * <p>
+ * {@link SystemTaskScheduler} runs the tasks on a timer thread in real time,
+ * {@link VirtualScheduler} runs them on the caller thread in virtual time, so a simulation
+ * of thousands of calls takes no real time and is reproducible.
+ */
+public interface TaskScheduler {
+
+    /**
+     * @return current time in nanos, comparable only with the other values of the same scheduler
+     */
+    long nanoTime();
+
+    /**
+     * @return future cancelling the task if it has not run yet
+     */
+    Future<?> schedule(Runnable task, long delay, TimeUnit unit);
+
+    void shutdown();
+}
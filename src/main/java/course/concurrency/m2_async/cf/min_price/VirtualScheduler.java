@@ -0,0 +1,136 @@
+package course.concurrency.m2_async.cf.min_price;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler with a virtual clock which moves only when the tasks are run.
+ * <p>
+ * Tasks are run on the thread calling {@link #advance} or {@link #runUntilIdle} in the order of their time,
+ * tasks of the same time in the order they were scheduled. The clock jumps straight to the next task,
+ * so a simulation takes as long as its tasks do and the same inputs always give the same run.
+ * The thread advancing the scheduler must not block on a result which needs the scheduler to move,
+ * such as {@link PriceAggregator#getMinPrice(long)}: it would wait forever.
+ */
+public class VirtualScheduler implements TaskScheduler {
+
+    private static final int PURGE_THRESHOLD = 64;
+
+    // guarded by this
+    private final PriorityQueue<VirtualTask> queue = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+    private int cancelledTasks;
+
+    @Override
+    public synchronized long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public synchronized Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        VirtualTask scheduled = new VirtualTask(task, now + Math.max(0, unit.toNanos(delay)), sequence++);
+        queue.add(scheduled);
+        return scheduled;
+    }
+
+    /**
+     * Runs the tasks due within the duration and moves the clock by it
+     */
+    public void advance(long duration, TimeUnit unit) {
+        long until;
+        synchronized (this) {
+            until = now + unit.toNanos(duration);
+        }
+        runUntil(until);
+        synchronized (this) {
+            now = Math.max(now, until);
+        }
+    }
+
+    /**
+     * Runs the tasks until none is left, the clock stops at the last one
+     */
+    public void runUntilIdle() {
+        runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return number of scheduled tasks which are not run or cancelled yet
+     */
+    public synchronized int getPendingTasks() {
+        return (int) queue.stream().filter(task -> !task.isCancelled()).count();
+    }
+
+    @Override
+    public void shutdown() {
+        VirtualTask[] tasks;
+        synchronized (this) {
+            tasks = queue.toArray(new VirtualTask[0]);
+            queue.clear();
+        }
+        for (VirtualTask task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Shop timeouts are cancelled on every answer, they are purged once they make up half of the queue
+     */
+    private synchronized void onCancel() {
+        cancelledTasks++;
+        if (cancelledTasks > queue.size() / 2 && queue.size() >= PURGE_THRESHOLD) {
+            queue.removeIf(VirtualTask::isCancelled);
+            cancelledTasks = 0;
+        }
+    }
+
+    private void runUntil(long until) {
+        while (true) {
+            VirtualTask task;
+            synchronized (this) {
+                task = queue.peek();
+                if (task == null || task.time > until) {
+                    return;
+                }
+                queue.poll();
+                // a cancelled timeout should not move the clock
+                if (task.isCancelled()) {
+                    cancelledTasks = Math.max(0, cancelledTasks - 1);
+                    continue;
+                }
+                now = task.time;
+            }
+            task.run();
+        }
+    }
+
+    private final class VirtualTask extends FutureTask<Void> implements Comparable<VirtualTask> {
+
+        private final long time;
+        private final long sequence;
+
+        VirtualTask(Runnable task, long time, long sequence) {
+            super(task, null);
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean isCancelled = super.cancel(mayInterruptIfRunning);
+            if (isCancelled) {
+                onCancel();
+            }
+            return isCancelled;
+        }
+
+        @Override
+        public int compareTo(VirtualTask other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package course.concurrency.m2_async.cf.report;
+
+import course.concurrency.m2_async.cf.LoadGenerator;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Report service with the execution strategy chosen by configuration
+ * instead of the commented out executors of {@link ReportServiceCF} and {@link ReportServiceExecutors}.
+ * <p>
+ * The strategy is passed to the constructor or taken from the report.strategy system property,
+ * the pool size from the report.poolSize property, the number of cores by default.
+ */
+public class ReportService {
+
+    public enum ExecutionStrategy {
+        // Future tasks on a fixed thread pool
+        FIXED_POOL,
+        // Future tasks on a dedicated ForkJoinPool
+        FORK_JOIN,
+        // a virtual thread per task, a new platform thread per task before Java 21
+        VIRTUAL_THREADS,
+        // CompletableFuture chain on a fixed thread pool
+        CF_CUSTOM_POOL
+    }
+
+    private final ExecutionStrategy strategy;
+    private final ExecutorService executor;
+    private final LoadGenerator loadGenerator;
+
+    public ReportService() {
+        this(ExecutionStrategy.valueOf(System.getProperty("report.strategy", ExecutionStrategy.CF_CUSTOM_POOL.name())),
+                Integer.getInteger("report.poolSize", Runtime.getRuntime().availableProcessors()),
+                new LoadGenerator());
+    }
+
+    public ReportService(ExecutionStrategy strategy) {
+        this(strategy, Runtime.getRuntime().availableProcessors(), new LoadGenerator());
+    }
+
+    /**
+     * @param poolSize number of threads of the pool, not used by VIRTUAL_THREADS
+     */
+    public ReportService(ExecutionStrategy strategy, int poolSize, LoadGenerator loadGenerator) {
+        this.strategy = strategy;
+        this.executor = newExecutor(strategy, poolSize);
+        this.loadGenerator = loadGenerator;
+    }
+
+    public ExecutionStrategy getStrategy() {
+        return strategy;
+    }
+
+    public Others.Report getReport() {
+        if (strategy == ExecutionStrategy.CF_CUSTOM_POOL) {
+            CompletableFuture<Collection<Others.Item>> itemsCF =
+                    CompletableFuture.supplyAsync(this::getItems, executor);
+            CompletableFuture<Collection<Others.Customer>> customersCF =
+                    CompletableFuture.supplyAsync(this::getActiveCustomers, executor);
+            return customersCF.thenCombine(itemsCF, (customers, items) -> combineResults(items, customers)).join();
+        }
+
+        Future<Collection<Others.Item>> itemsFuture = executor.submit(this::getItems);
+        Future<Collection<Others.Customer>> customersFuture = executor.submit(this::getActiveCustomers);
+        try {
+            return combineResults(itemsFuture.get(), customersFuture.get());
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            itemsFuture.cancel(true);
+            customersFuture.cancel(true);
+            throw new CompletionException(e);
+        }
+    }
+
+    private Others.Report combineResults(Collection<Others.Item> items, Collection<Others.Customer> customers) {
+        return new Others.Report();
+    }
+
+    private Collection<Others.Customer> getActiveCustomers() {
+        loadGenerator.work();
+        loadGenerator.work();
+        return List.of(new Others.Customer(), new Others.Customer());
+    }
+
+    private Collection<Others.Item> getItems() {
+        loadGenerator.work();
+        return List.of(new Others.Item(), new Others.Item());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static ExecutorService newExecutor(ExecutionStrategy strategy, int poolSize) {
+        switch (strategy) {
+            case FORK_JOIN:
+                return new ForkJoinPool(poolSize);
+            case VIRTUAL_THREADS:
+                return newVirtualThreadPerTaskExecutor();
+            case FIXED_POOL:
+            case CF_CUSTOM_POOL:
+            default:
+                return Executors.newFixedThreadPool(poolSize);
+        }
+    }
+
+    /**
+     * Virtual threads appeared in Java 21, the project is built for Java 11,
+     * so the executor is looked up at runtime. A cached pool starting a thread per task is the closest fallback
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
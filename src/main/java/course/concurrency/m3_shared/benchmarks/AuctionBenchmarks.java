@@ -0,0 +1,132 @@
+package course.concurrency.m3_shared.benchmarks;
+
+import course.concurrency.exams.auction.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AuctionBenchmarks {
+
+    // Change THREAD_COUNTS to experiment, every count is a separate run with its own json result
+    public static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+
+    private static final long PRICE_RANGE = 1_000_000;
+    private static final int HOT_SPOT_WIDTH = 8;
+
+    public enum Implementation {
+        OPTIMISTIC(AuctionOptimistic::new),
+        PESSIMISTIC(AuctionPessimistic::new),
+        ADAPTIVE(AuctionAdaptive::new),
+        FLAT_COMBINING(AuctionFlatCombining::new),
+        STOPPABLE_OPTIMISTIC(AuctionStoppableOptimistic::new),
+        STOPPABLE_PESSIMISTIC(AuctionStoppablePessimistic::new);
+
+        private final Function<Notifier, Auction> factory;
+
+        Implementation(Function<Notifier, Auction> factory) {
+            this.factory = factory;
+        }
+    }
+
+    public enum PriceDistribution {
+        // every bid is higher than all the previous ones, so almost every bid is accepted
+        MONOTONIC,
+        // uniformly random prices, most of the bids are rejected after the warmup
+        RANDOM,
+        // prices close to the latest bid, bidders fight for the same price
+        HOT_SPOT
+    }
+
+    @Param
+    private Implementation implementation;
+
+    @Param
+    private PriceDistribution distribution;
+
+    @Param({"0", "10", "50"})
+    private int readPercent;
+
+    private Notifier notifier;
+    private Auction auction;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        // measure auctions only, the notification is not a part of the benchmark
+        notifier = new Notifier() {
+            @Override
+            public void sendOutdatedMessage(Bid bid) {
+            }
+        };
+        auction = implementation.factory.apply(notifier);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        notifier.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Bidder {
+        private final long participantId = Thread.currentThread().getId();
+        private long bidId;
+        // price the hot spot is built around, derived from the outcomes of the own bids without reading the auction
+        private long hotPrice;
+
+        long nextPrice(PriceDistribution distribution) {
+            if (distribution == PriceDistribution.MONOTONIC) {
+                return System.nanoTime();
+            }
+            if (distribution == PriceDistribution.RANDOM) {
+                return ThreadLocalRandom.current().nextLong(PRICE_RANGE);
+            }
+            return hotPrice + ThreadLocalRandom.current().nextInt(HOT_SPOT_WIDTH) - HOT_SPOT_WIDTH / 2;
+        }
+
+        /**
+         * An accepted price is the latest one. A rejected price means the latest one is at least as high,
+         * so the hot spot moves above it to catch up with the other bidders
+         */
+        void onProposed(long price, boolean isAccepted) {
+            hotPrice = isAccepted ? price : Math.max(hotPrice, price + HOT_SPOT_WIDTH / 2);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            Options options = new OptionsBuilder()
+                    .include(AuctionBenchmarks.class.getName())
+                    .threads(threads)
+                    .forks(1)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("auction-benchmarks-" + threads + "-threads.json")
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+
+    @Benchmark
+    public Object bid(Bidder bidder) {
+        if (ThreadLocalRandom.current().nextInt(100) < readPercent) {
+            return auction.getLatestBid();
+        }
+        long price = bidder.nextPrice(distribution);
+        boolean isAccepted = auction.propose(bidder.bidId++, bidder.participantId, price);
+        bidder.onProposed(price, isAccepted);
+        return isAccepted;
+    }
+}
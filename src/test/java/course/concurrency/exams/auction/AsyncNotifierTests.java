@@ -0,0 +1,34 @@
+package course.concurrency.exams.auction;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncNotifierTests {
+
+    @Test
+    public void testDeliveryDoesNotBlockSender() throws Exception {
+        int messageCount = 100_000;
+        AsyncNotifier notifier = new AsyncNotifier(200, 5);
+        try {
+            long start = System.nanoTime();
+            for (long i = 1; i < messageCount; i++) {
+                notifier.sendOutdatedMessage(new Bid(i, i, i));
+            }
+            Bid last = new Bid(0L, 0L, (long) messageCount);
+            CompletableFuture<Bid> lastDelivery = notifier.send(last);
+            long sendingMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(sendingMillis < 2000, "Sending took too long: " + sendingMillis);
+            assertEquals(last, lastDelivery.get(5, TimeUnit.SECONDS));
+            assertEquals(messageCount, notifier.getSentCount());
+            assertEquals(messageCount, notifier.getDeliveredCount());
+        } finally {
+            notifier.shutdown();
+        }
+    }
+}
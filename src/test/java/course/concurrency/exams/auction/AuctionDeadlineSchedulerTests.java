@@ -0,0 +1,100 @@
+package course.concurrency.exams.auction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuctionDeadlineSchedulerTests {
+
+    private static final int lotCount = 20_000;
+
+    private Notifier notifier;
+    private AuctionDeadlineScheduler scheduler;
+
+    @BeforeEach
+    public void setup() {
+        notifier = new Notifier();
+        scheduler = new AuctionDeadlineScheduler(1, TimeUnit.MILLISECONDS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdown();
+        notifier.shutdown();
+    }
+
+    @Test
+    public void testLotsAreClosedAtDeadlines() throws InterruptedException {
+        List<AuctionStoppable> auctions = new ArrayList<>();
+        List<AuctionDeadlineScheduler.Deadline> deadlines = new ArrayList<>();
+        ConcurrentHashMap<Integer, Bid> winners = new ConcurrentHashMap<>();
+        CountDownLatch closed = new CountDownLatch(lotCount / 2);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < lotCount; i++) {
+            int lot = i;
+            AuctionStoppable auction = new AuctionStoppableOptimistic(notifier);
+            auction.propose(new Bid((long) i, (long) i, (long) i + 1));
+            auctions.add(auction);
+            // deadlines from 1 to 5 seconds span several levels of the wheel
+            long delay = 1_000 + (i * 37L) % 4_000;
+            deadlines.add(scheduler.schedule(auction, delay, TimeUnit.MILLISECONDS, bid -> {
+                winners.put(lot, bid);
+                closed.countDown();
+            }));
+        }
+        for (int i = 1; i < lotCount; i += 2) {
+            assertTrue(deadlines.get(i).cancel());
+        }
+
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 4_900, "Closed too early: " + elapsedMillis);
+
+        for (int i = 0; i < lotCount; i++) {
+            if (i % 2 == 0) {
+                assertTrue(deadlines.get(i).isExpired());
+                assertEquals(i + 1, winners.get(i).getPrice());
+                assertFalse(auctions.get(i).propose(new Bid(0L, 0L, Long.MAX_VALUE)));
+            } else {
+                assertTrue(deadlines.get(i).isCancelled());
+                assertNull(winners.get(i));
+                assertTrue(auctions.get(i).propose(new Bid(0L, 0L, Long.MAX_VALUE)));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedCallbackGoesToErrorHandler() throws InterruptedException {
+        List<RuntimeException> errors = new CopyOnWriteArrayList<>();
+        CountDownLatch failed = new CountDownLatch(1);
+        AuctionDeadlineScheduler failing = new AuctionDeadlineScheduler(1, TimeUnit.MILLISECONDS, e -> {
+            errors.add(e);
+            failed.countDown();
+        });
+        CountDownLatch closed = new CountDownLatch(1);
+        try {
+            failing.schedule(new AuctionStoppableOptimistic(notifier), 5, TimeUnit.MILLISECONDS, bid -> {
+                throw new IllegalStateException("callback failed");
+            });
+            failing.schedule(new AuctionStoppableOptimistic(notifier), 5, TimeUnit.MILLISECONDS, bid -> closed.countDown());
+
+            // the other lot is closed despite the failed callback
+            assertTrue(closed.await(1, TimeUnit.SECONDS));
+            assertTrue(failed.await(1, TimeUnit.SECONDS));
+            assertEquals(1, errors.size());
+            assertEquals("callback failed", errors.get(0).getMessage());
+        } finally {
+            failing.shutdown();
+        }
+    }
+}
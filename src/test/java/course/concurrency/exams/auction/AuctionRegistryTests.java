@@ -0,0 +1,91 @@
+package course.concurrency.exams.auction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuctionRegistryTests {
+
+    private static final int lotCount = 10_000;
+    private static final int iterations = 200_000;
+    private static final int poolSize = Runtime.getRuntime().availableProcessors();
+
+    private Notifier notifier;
+    private AuctionRegistry registry;
+
+    @BeforeEach
+    public void setup() {
+        notifier = new Notifier();
+        registry = new AuctionRegistry(notifier, AuctionStoppableOptimistic::new);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        notifier.shutdown();
+    }
+
+    @Test
+    public void testOpenAndClose() {
+        long[] lotIds = LongStream.range(0, lotCount).map(i -> i * 31 - 5_000).toArray();
+
+        assertEquals(lotCount, registry.openAll(lotIds));
+        assertEquals(0, registry.openAll(lotIds));
+        assertFalse(registry.open(lotIds[0]));
+        assertEquals(lotCount, registry.size());
+
+        assertTrue(registry.propose(lotIds[1], new Bid(1L, 1L, 10L)));
+        assertFalse(registry.propose(lotIds[1], 2L, 2L, 5L));
+        assertFalse(registry.propose(Long.MAX_VALUE, 3L, 3L, 50L));
+        assertNull(registry.getLatestBid(Long.MAX_VALUE));
+
+        assertEquals(10L, registry.close(lotIds[1]).getPrice());
+        assertNull(registry.close(lotIds[1]));
+        assertNull(registry.getLatestBid(lotIds[1]));
+
+        Bid[] winners = registry.closeAll(lotIds);
+        assertNull(winners[1]);
+        assertEquals(Auction.INITIAL_BID, winners[0]);
+        assertEquals(0, registry.size());
+        for (long lotId : lotIds) {
+            assertNull(registry.getLatestBid(lotId));
+        }
+    }
+
+    @Test
+    public void testConcurrentBids() throws InterruptedException {
+        long[] lotIds = LongStream.range(0, lotCount).toArray();
+        registry.openAll(lotIds);
+
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        CountDownLatch latch = new CountDownLatch(1);
+        for (int t = 0; t < poolSize; t++) {
+            executor.submit(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException ignored) {}
+
+                for (int it = 0; it < iterations; it++) {
+                    long lotId = it % lotCount;
+                    registry.propose(lotId, it, it, it);
+                }
+            });
+        }
+        latch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+
+        Bid[] winners = registry.closeAll(lotIds);
+        for (int i = 0; i < lotCount; i++) {
+            long expectedPrice = iterations - lotCount + i;
+            assertEquals(expectedPrice, winners[i].getPrice());
+        }
+    }
+}
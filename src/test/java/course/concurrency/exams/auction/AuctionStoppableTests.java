@@ -2,10 +2,16 @@ package course.concurrency.exams.auction;
 
 import org.junit.jupiter.api.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class AuctionStoppableTests {
 
@@ -125,4 +131,59 @@ public class AuctionStoppableTests {
 
         assertEquals(latestBidWhenStopped.get().getPrice(), auction.getLatestBid().getPrice());
     }
+
+    @RepeatedTest(TEST_COUNT)
+    public void testStopRacingProposeOptimistic() throws Exception {
+        Notifier silentNotifier = new Notifier() {
+            @Override
+            public void sendOutdatedMessage(Bid bid) {
+            }
+        };
+        AuctionStoppable auction = new AuctionStoppableOptimistic(silentNotifier);
+        int bidders = Math.max(4, poolSize);
+        int bidsPerBidder = 100_000;
+        ExecutorService pool = Executors.newFixedThreadPool(bidders + 2);
+        AtomicLong price = new AtomicLong();
+        LongAccumulator maxAcceptedPrice = new LongAccumulator(Math::max, 0);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        for (int i = 0; i < bidders; i++) {
+            pool.submit(() -> {
+                latch.await();
+                for (int it = 0; it < bidsPerBidder; it++) {
+                    long value = price.incrementAndGet();
+                    // both the object and the primitive paths race with the stop
+                    boolean isAccepted = it % 2 == 0
+                            ? auction.propose(new Bid(value, value, value))
+                            : auction.propose(value, value, value);
+                    if (isAccepted) {
+                        maxAcceptedPrice.accumulate(value);
+                    }
+                }
+                return null;
+            });
+        }
+        List<Future<Bid>> stops = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            stops.add(pool.submit(() -> {
+                latch.await();
+                while (price.get() < bidsPerBidder) {
+                    Thread.onSpinWait();
+                }
+                return auction.stopAuction();
+            }));
+        }
+
+        latch.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        silentNotifier.shutdown();
+
+        Bid finalBid = stops.get(0).get();
+        assertSame(finalBid, stops.get(1).get());
+        assertSame(finalBid, auction.getLatestBid());
+        // no bid is accepted after the auction is closed
+        assertEquals(maxAcceptedPrice.get(), finalBid.getPrice());
+        assertTrue(finalBid.getPrice() < price.get());
+    }
 }
@@ -2,9 +2,16 @@ package course.concurrency.exams.auction;
 
 import org.junit.jupiter.api.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class AuctionTests {
 
@@ -14,6 +21,7 @@ public class AuctionTests {
     private static final int iterations = 1_000_000;
     private static final int poolSize = Runtime.getRuntime().availableProcessors();
     private static final int bidCount = iterations * poolSize;
+    private static final int BATCH_SIZE = 100;
 
     private ExecutorService executor;
     private BlockingQueue<Long> priceQueue;
@@ -56,7 +64,29 @@ public class AuctionTests {
         testCorrectLatestBid(auction, "pessimistic");
     }
 
+    @RepeatedTest(TEST_COUNT)
+    public void testOptimisticPrimitive() throws InterruptedException {
+        Auction auction = new AuctionOptimistic(notifier);
+        testCorrectLatestBid(auction, "optimistic_primitive", true);
+    }
+
+    @RepeatedTest(TEST_COUNT)
+    public void testAdaptive() throws InterruptedException {
+        Auction auction = new AuctionAdaptive(notifier);
+        testCorrectLatestBid(auction, "adaptive");
+    }
+
+    @RepeatedTest(TEST_COUNT)
+    public void testFlatCombining() throws InterruptedException {
+        Auction auction = new AuctionFlatCombining(notifier);
+        testCorrectLatestBid(auction, "flat_combining");
+    }
+
     public void testCorrectLatestBid(Auction auction, String tag) throws InterruptedException {
+        testCorrectLatestBid(auction, tag, false);
+    }
+
+    public void testCorrectLatestBid(Auction auction, String tag, boolean primitive) throws InterruptedException {
         CountDownLatch latch = new CountDownLatch(1);
         for (int i = 0; i < poolSize; i++) {
 
@@ -67,8 +97,11 @@ public class AuctionTests {
 
                 for (int it = 0; it < iterations; it++) {
                     long value = priceQueue.poll();
-                    Bid bid = new Bid(value, value, value);
-                    auction.propose(bid);
+                    if (primitive) {
+                        auction.propose(value, value, value);
+                    } else {
+                        auction.propose(new Bid(value, value, value));
+                    }
                     if (it % 200 == 0) {
                         auction.getLatestBid();
                     }
@@ -85,4 +118,167 @@ public class AuctionTests {
         assertEquals(expectedPrice, auction.getLatestBid().getPrice());
         stat.addData(tag,end - start);
     }
+
+    @RepeatedTest(TEST_COUNT)
+    public void testOptimisticBatch() throws InterruptedException {
+        Auction auction = new AuctionOptimistic(notifier);
+        testCorrectLatestBidBatched(auction, "optimistic_batch");
+    }
+
+    @RepeatedTest(TEST_COUNT)
+    public void testPessimisticBatch() throws InterruptedException {
+        Auction auction = new AuctionPessimistic(notifier);
+        testCorrectLatestBidBatched(auction, "pessimistic_batch");
+    }
+
+    public void testCorrectLatestBidBatched(Auction auction, String tag) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        for (int i = 0; i < poolSize; i++) {
+
+            executor.submit(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException ignored) {}
+
+                for (int it = 0; it < iterations; it += BATCH_SIZE) {
+                    List<Bid> batch = new ArrayList<>(BATCH_SIZE);
+                    Long value;
+                    while (batch.size() < BATCH_SIZE && (value = priceQueue.poll()) != null) {
+                        batch.add(new Bid(value, value, value));
+                    }
+                    auction.propose(batch.toArray(new Bid[0]));
+                }
+            });
+        }
+
+        long start = System.currentTimeMillis();
+        latch.countDown();
+        executor.shutdown();
+        executor.awaitTermination(20, TimeUnit.SECONDS);
+        long end = System.currentTimeMillis();
+
+        assertEquals(expectedPrice, auction.getLatestBid().getPrice());
+        stat.addData(tag,end - start);
+    }
+
+    @Test
+    public void testBatchOutdatedBids() {
+        List<Long> outdatedPrices = new ArrayList<>();
+        Notifier recordingNotifier = new Notifier() {
+            @Override
+            public void sendOutdatedMessage(Bid bid) {
+                outdatedPrices.add(bid.getPrice());
+            }
+        };
+        Auction optimistic = new AuctionOptimistic(recordingNotifier);
+        Auction pessimistic = new AuctionPessimistic(recordingNotifier);
+
+        for (Auction auction : List.of(optimistic, pessimistic)) {
+            outdatedPrices.clear();
+            auction.propose(new Bid(1L, 1L, 5L));
+
+            boolean[] accepted = auction.propose(new Bid[]{
+                    new Bid(2L, 2L, 3L), new Bid(3L, 3L, 7L), new Bid(4L, 4L, 6L),
+                    new Bid(5L, 5L, 9L), new Bid(6L, 6L, 9L)});
+
+            assertArrayEquals(new boolean[]{false, true, false, true, false}, accepted);
+            assertEquals(List.of(0L, 5L, 7L), outdatedPrices);
+            assertEquals(5L, auction.getLatestBid().getId());
+            assertArrayEquals(new boolean[2], auction.propose(new Bid[]{new Bid(7L, 7L, 1L), new Bid(8L, 8L, 9L)}));
+        }
+        recordingNotifier.shutdown();
+    }
+
+    @Test
+    public void testOptimisticKeepsProposedBid() {
+        Auction auction = new AuctionOptimistic(notifier);
+        Bid bid = new Bid(1L, 1L, 5L);
+
+        // the proposed Bid is the state itself, no wrapper is allocated for it
+        auction.propose(bid);
+        assertSame(bid, auction.getLatestBid());
+    }
+
+    @Test
+    public void testFlatCombiningWithMoreThreadsThanSlots() throws InterruptedException {
+        Notifier silentNotifier = new Notifier() {
+            @Override
+            public void sendOutdatedMessage(Bid bid) {
+            }
+        };
+        Auction auction = new AuctionFlatCombining(silentNotifier);
+        Bid first = new Bid(0L, 0L, 1L);
+        auction.propose(first);
+        assertSame(first, auction.getLatestBid());
+
+        // the threads come and go, the ones which find no free slot apply their bids directly
+        int bidders = 64;
+        int bidsPerBidder = 10_000;
+        ExecutorService bidderPool = Executors.newFixedThreadPool(bidders);
+        for (int t = 0; t < bidders; t++) {
+            long offset = t;
+            bidderPool.submit(() -> {
+                for (long price = 2 + offset; price < 2 + (long) bidders * bidsPerBidder; price += bidders) {
+                    auction.propose(new Bid(price, offset, price));
+                }
+            });
+        }
+        bidderPool.shutdown();
+        assertTrue(bidderPool.awaitTermination(20, TimeUnit.SECONDS));
+        assertEquals(1 + (long) bidders * bidsPerBidder, auction.getLatestBid().getPrice());
+        silentNotifier.shutdown();
+    }
+
+    @Test
+    public void testAdaptiveSwitchesModes() {
+        Notifier silentNotifier = new Notifier() {
+            @Override
+            public void sendOutdatedMessage(Bid bid) {
+            }
+        };
+        AtomicLong now = new AtomicLong();
+        AtomicLong lockWait = new AtomicLong();
+        // every lock acquisition waits for lockWait nanos, the mode is evaluated only by the test
+        AuctionAdaptive auction = new AuctionAdaptive(silentNotifier, 0, 0.25, 1_000,
+                () -> now.addAndGet(lockWait.get()));
+
+        // another bid gets in between reading the latest bid and the CAS, so the first CAS fails
+        Bid racingBid = new Bid(2L, 2L, 2L) {
+            private int reads;
+
+            @Override
+            public long getPrice() {
+                if (++reads == 2) {
+                    auction.propose(new Bid(1L, 1L, 1L));
+                }
+                return super.getPrice();
+            }
+        };
+        assertTrue(auction.propose(racingBid));
+        auction.evaluateMode();
+        assertTrue(auction.isLockMode());
+        assertEquals(1, auction.getModeSwitchCount());
+
+        // a fresh window: the failures measured in the CAS mode do not count anymore
+        auction.evaluateMode();
+        assertTrue(auction.isLockMode());
+
+        lockWait.set(5_000);
+        assertTrue(auction.propose(3L, 3L, 3L));
+        auction.evaluateMode();
+        assertTrue(auction.isLockMode());
+
+        lockWait.set(0);
+        assertTrue(auction.propose(4L, 4L, 4L));
+        auction.evaluateMode();
+        assertFalse(auction.isLockMode());
+        assertEquals(2, auction.getModeSwitchCount());
+
+        // uncontended CAS keeps the CAS mode
+        assertTrue(auction.propose(5L, 5L, 5L));
+        auction.evaluateMode();
+        assertFalse(auction.isLockMode());
+        assertEquals(5L, auction.getLatestBid().getPrice());
+        silentNotifier.shutdown();
+    }
 }
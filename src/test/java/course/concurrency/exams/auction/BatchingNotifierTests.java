@@ -0,0 +1,113 @@
+package course.concurrency.exams.auction;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchingNotifierTests {
+
+    private static final long LONG_WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void testCoalescing() {
+        BatchingNotifier notifier = new BatchingNotifier(LONG_WINDOW, 10, BatchingNotifier.OverflowPolicy.DROP_OLDEST);
+        try {
+            notifier.sendOutdatedMessage(Auction.INITIAL_BID);
+            for (long i = 1; i <= 100; i++) {
+                notifier.sendOutdatedMessage(new Bid(i, i % 5, i));
+            }
+
+            assertEquals(100, notifier.getEnqueuedCount());
+            assertEquals(95, notifier.getCoalescedCount());
+            assertEquals(0, notifier.getDroppedCount());
+        } finally {
+            notifier.shutdown();
+        }
+    }
+
+    @Test
+    public void testDropOldest() {
+        BatchingNotifier notifier = new BatchingNotifier(LONG_WINDOW, 10, BatchingNotifier.OverflowPolicy.DROP_OLDEST);
+        try {
+            for (long i = 0; i < 25; i++) {
+                notifier.sendOutdatedMessage(new Bid(i, i, i));
+            }
+
+            assertEquals(25, notifier.getEnqueuedCount());
+            assertEquals(15, notifier.getDroppedCount());
+        } finally {
+            notifier.shutdown();
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        BatchingNotifier notifier = new BatchingNotifier(LONG_WINDOW, 10, BatchingNotifier.OverflowPolicy.MERGE);
+        try {
+            for (long i = 0; i < 25; i++) {
+                notifier.sendOutdatedMessage(new Bid(i, i, i));
+            }
+
+            assertEquals(15, notifier.getMergedCount());
+            assertEquals(0, notifier.getDroppedCount());
+        } finally {
+            notifier.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlockUntilBatchIsSent() {
+        BatchingNotifier notifier = new BatchingNotifier(50, 10, BatchingNotifier.OverflowPolicy.BLOCK);
+        try {
+            long start = System.currentTimeMillis();
+            for (long i = 0; i < 25; i++) {
+                notifier.sendOutdatedMessage(new Bid(i, i, i));
+            }
+            long end = System.currentTimeMillis();
+
+            assertEquals(25, notifier.getEnqueuedCount());
+            assertEquals(0, notifier.getDroppedCount());
+            assertTrue(notifier.getFlushedBatchCount() >= 2);
+            // the blocked senders wait for the window only, not for the 2 seconds of sending the previous batch
+            assertTrue(end - start < 1000, "Senders blocked too long: " + (end - start));
+        } finally {
+            notifier.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturatedSendersDeferBatches() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        BatchingNotifier notifier = new BatchingNotifier(5, 10, BatchingNotifier.OverflowPolicy.DROP_OLDEST) {
+            @Override
+            protected void sendBatch(List<Bid> bids, int mergedCount) {
+                try {
+                    delivered.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            for (long i = 0; notifier.getDeferredFlushCount() < 5 && System.currentTimeMillis() < deadline; i++) {
+                notifier.sendOutdatedMessage(new Bid(i, i, i));
+                if (i % 10 == 0) {
+                    Thread.sleep(1);
+                }
+            }
+
+            // the stuck senders hold every batch in flight, the rest of the messages wait in the pending ones
+            assertTrue(notifier.getFlushedBatchCount() <= BatchingNotifier.SENDER_THREADS);
+            assertTrue(notifier.getDeferredFlushCount() > 0);
+            assertTrue(notifier.getDroppedCount() > 0);
+        } finally {
+            delivered.countDown();
+            notifier.shutdown();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package course.concurrency.exams.auction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BidJournalTests {
+
+    private static final int iterations = 100_000;
+    private static final int poolSize = Runtime.getRuntime().availableProcessors();
+    // every proposed bid takes at most one record, one more bid is proposed after the replay
+    private static final int maxRecords = (iterations + 1) * poolSize;
+
+    @TempDir
+    Path directory;
+
+    private Notifier notifier;
+
+    @BeforeEach
+    public void setup() {
+        notifier = new Notifier();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        notifier.shutdown();
+    }
+
+    @Test
+    public void testGroupCommit() throws IOException, InterruptedException {
+        try (BidJournal journal = new BidJournal(directory.resolve("bids.journal"), maxRecords, 5)) {
+            assertEquals(Auction.INITIAL_BID, journal.getRecoveredBid());
+
+            long position = 0;
+            for (long i = 1; i <= 1000; i++) {
+                position = journal.append(new Bid(i, i, i));
+            }
+            journal.awaitDurable(position);
+            assertTrue(journal.getDurablePosition() >= position);
+        }
+    }
+
+    @Test
+    public void testCloseReleasesWaiters() throws Exception {
+        BidJournal journal = new BidJournal(directory.resolve("closed.journal"), 10, 5);
+        journal.claim(1);
+        long position = journal.reserve(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        // the reserved record is never written, so it never becomes durable
+        Future<?> waiter = executor.submit(() -> {
+            journal.awaitDurable(position + 1);
+            return null;
+        });
+
+        Thread.sleep(50);
+        journal.close();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> waiter.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testReleasedClaimKeepsRoom() throws IOException {
+        try (BidJournal journal = new BidJournal(directory.resolve("released.journal"), 2, 5)) {
+            // a bid which has lost the race releases its claim and leaves nothing in the file
+            journal.claim(2);
+            journal.release(2);
+            journal.append(new Bid(1L, 1L, 1L));
+            journal.append(new Bid(2L, 2L, 2L));
+            assertThrows(IllegalStateException.class, () -> journal.claim(1));
+        }
+    }
+
+    @Test
+    public void testLostRacesTakeNoRecords() throws Exception {
+        int threads = Math.max(4, poolSize);
+        try (BidJournal journal = new BidJournal(directory.resolve("races.journal"), maxRecords, 5)) {
+            long recordSize = journal.append(new Bid(0L, 0L, 0L));
+            AuctionOptimistic auction = new AuctionOptimistic(notifier, journal);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            AtomicInteger accepted = new AtomicInteger();
+            CountDownLatch latch = new CountDownLatch(1);
+            for (int t = 0; t < threads; t++) {
+                long offset = t + 1;
+                executor.submit(() -> {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException ignored) {}
+
+                    for (long price = offset; price <= iterations; price += threads) {
+                        if (auction.propose(new Bid(price, offset, price))) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            latch.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+
+            // only the accepted bids are in the file, the next record follows them
+            assertEquals((accepted.get() + 2) * recordSize, journal.append(new Bid(0L, 0L, 0L)));
+        }
+    }
+
+    @Test
+    public void testProposeDurably() throws IOException, InterruptedException {
+        try (BidJournal journal = new BidJournal(directory.resolve("durable.journal"), 10, 5)) {
+            AuctionOptimistic optimistic = new AuctionOptimistic(notifier, journal);
+            assertTrue(optimistic.proposeDurably(new Bid(1L, 1L, 1L)));
+            long durable = journal.getDurablePosition();
+            assertTrue(durable > 0);
+            assertFalse(optimistic.proposeDurably(new Bid(2L, 2L, 1L)));
+
+            AuctionPessimistic pessimistic = new AuctionPessimistic(notifier, journal);
+            assertTrue(pessimistic.proposeDurably(new Bid(3L, 3L, 3L)));
+            assertTrue(journal.getDurablePosition() > durable);
+        }
+    }
+
+    @Test
+    public void testFullJournalFailsBids() throws IOException {
+        List<AuctionFactory> factories = List.of(AuctionOptimistic::new, AuctionPessimistic::new);
+        for (int i = 0; i < factories.size(); i++) {
+            try (BidJournal journal = new BidJournal(directory.resolve("full-" + i + ".journal"), 2, 10)) {
+                Auction auction = factories.get(i).create(notifier, journal);
+                assertTrue(auction.propose(new Bid(1L, 1L, 1L)));
+                assertTrue(auction.propose(2L, 2L, 2L));
+
+                // the bid which cannot be journaled is not published, being outbid is still reported as false
+                assertThrows(IllegalStateException.class, () -> auction.propose(new Bid(3L, 3L, 3L)));
+                assertThrows(IllegalStateException.class, () -> auction.propose(new Bid[]{new Bid(4L, 4L, 4L)}));
+                assertFalse(auction.propose(new Bid(5L, 5L, 2L)));
+                assertEquals(2L, auction.getLatestBid().getPrice());
+            }
+        }
+    }
+
+    @Test
+    public void testBatchJournalsEveryAcceptedBid() throws IOException {
+        List<AuctionFactory> factories = List.of(AuctionOptimistic::new, AuctionPessimistic::new);
+        for (int i = 0; i < factories.size(); i++) {
+            Path path = directory.resolve("batch-" + i + ".journal");
+            try (BidJournal journal = new BidJournal(path, 3, 10)) {
+                Auction auction = factories.get(i).create(notifier, journal);
+                boolean[] accepted = auction.propose(new Bid[]{
+                        new Bid(1L, 1L, 5L), new Bid(2L, 2L, 7L), new Bid(3L, 3L, 6L), new Bid(4L, 4L, 9L)});
+                assertArrayEquals(new boolean[]{true, true, false, true}, accepted);
+
+                // three accepted bids have taken the whole journal
+                assertThrows(IllegalStateException.class, () -> auction.propose(new Bid(5L, 5L, 10L)));
+            }
+            try (BidJournal journal = new BidJournal(path, 3, 10)) {
+                assertEquals(4L, journal.getRecoveredBid().getId());
+            }
+        }
+    }
+
+    @Test
+    public void testFailingNotifierDoesNotStallCommit() throws Exception {
+        Notifier failing = new Notifier() {
+            @Override
+            public void sendOutdatedMessage(Bid bid) {
+                throw new RejectedExecutionException();
+            }
+        };
+        List<AuctionFactory> factories = List.of(AuctionOptimistic::new, AuctionPessimistic::new);
+        for (int i = 0; i < factories.size(); i++) {
+            try (BidJournal journal = new BidJournal(directory.resolve("failing-" + i + ".journal"), 10, 5)) {
+                Auction auction = factories.get(i).create(failing, journal);
+                assertThrows(RejectedExecutionException.class,
+                        () -> auction.propose(new Bid[]{new Bid(1L, 1L, 5L), new Bid(2L, 2L, 7L)}));
+
+                // the records of the batch are written, so the commit advances past them
+                long position = journal.append(new Bid(3L, 3L, 9L));
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                Future<?> waiter = executor.submit(() -> {
+                    journal.awaitDurable(position);
+                    return null;
+                });
+                waiter.get(1, TimeUnit.SECONDS);
+                executor.shutdown();
+            }
+        }
+        failing.shutdown();
+    }
+
+    @Test
+    public void testReplayOptimistic() throws IOException, InterruptedException {
+        testReplay(AuctionOptimistic::new);
+    }
+
+    @Test
+    public void testReplayPessimistic() throws IOException, InterruptedException {
+        testReplay(AuctionPessimistic::new);
+    }
+
+    private void testReplay(AuctionFactory factory) throws IOException, InterruptedException {
+        Path path = directory.resolve("auction.journal");
+        long expectedPrice = (long) iterations * poolSize;
+
+        try (BidJournal journal = new BidJournal(path, maxRecords, 10)) {
+            Auction auction = factory.create(notifier, journal);
+            ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+            CountDownLatch latch = new CountDownLatch(1);
+            for (int t = 0; t < poolSize; t++) {
+                long offset = t + 1;
+                executor.submit(() -> {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException ignored) {}
+
+                    for (long price = offset; price <= expectedPrice; price += poolSize) {
+                        auction.propose(new Bid(price, offset, price));
+                    }
+                });
+            }
+            latch.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+            assertEquals(expectedPrice, auction.getLatestBid().getPrice());
+        }
+
+        try (BidJournal journal = new BidJournal(path, maxRecords, 10)) {
+            Auction restored = factory.create(notifier, journal);
+            assertEquals(expectedPrice, restored.getLatestBid().getPrice());
+            assertFalse(restored.propose(new Bid(0L, 0L, expectedPrice)));
+            assertTrue(restored.propose(new Bid(0L, 0L, expectedPrice + 1)));
+        }
+
+        try (BidJournal journal = new BidJournal(path, maxRecords, 10)) {
+            assertEquals(expectedPrice + 1, journal.getRecoveredBid().getPrice());
+        }
+    }
+
+    @FunctionalInterface
+    private interface AuctionFactory {
+        Auction create(Notifier notifier, BidJournal journal);
+    }
+}
@@ -0,0 +1,76 @@
+package course.concurrency.exams.auction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LeaderboardAuctionTests {
+
+    private static final int K = 10;
+    private static final int iterations = 500_000;
+    private static final int poolSize = Runtime.getRuntime().availableProcessors();
+
+    private Notifier notifier;
+
+    @BeforeEach
+    public void setup() {
+        notifier = new Notifier();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        notifier.shutdown();
+    }
+
+    @Test
+    public void testTopBids() throws InterruptedException {
+        LeaderboardAuction auction = new LeaderboardAuction(new AuctionOptimistic(notifier), K);
+        long bidCount = (long) iterations * poolSize;
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        for (int i = 0; i < poolSize; i++) {
+            long offset = i;
+            executor.submit(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException ignored) {}
+
+                // every thread bids on its own residue class, so all the prices are distinct
+                for (long price = offset; price < bidCount; price += poolSize) {
+                    auction.propose(new Bid(price, offset, price));
+                }
+            });
+        }
+        latch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+
+        List<Long> expected = LongStream.range(bidCount - K, bidCount).boxed()
+                .sorted((a, b) -> Long.compare(b, a))
+                .collect(Collectors.toList());
+        List<Long> topPrices = auction.getTopBids().stream().map(Bid::getPrice).collect(Collectors.toList());
+        assertEquals(expected, topPrices);
+        assertEquals(bidCount - 1, auction.getLatestBid().getPrice());
+    }
+
+    @Test
+    public void testRejectBelowKthPrice() {
+        LeaderboardAuction auction = new LeaderboardAuction(new AuctionPessimistic(notifier), 2);
+
+        assertTrue(auction.propose(new Bid(1L, 1L, 10L)));
+        assertTrue(auction.propose(new Bid(2L, 2L, 20L)));
+        assertFalse(auction.propose(new Bid(3L, 3L, 15L)));
+        assertFalse(auction.propose(new Bid(4L, 4L, 5L)));
+
+        List<Long> topPrices = auction.getTopBids().stream().map(Bid::getPrice).collect(Collectors.toList());
+        assertEquals(List.of(20L, 15L), topPrices);
+    }
+}
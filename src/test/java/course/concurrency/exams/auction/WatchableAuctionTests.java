@@ -0,0 +1,108 @@
+package course.concurrency.exams.auction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WatchableAuctionTests {
+
+    private static final int waiterCount = 1000;
+    private static final int iterations = 200_000;
+    private static final int poolSize = Runtime.getRuntime().availableProcessors();
+
+    private Notifier notifier;
+
+    @BeforeEach
+    public void setup() {
+        notifier = new Notifier();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        notifier.shutdown();
+    }
+
+    @Test
+    public void testWaitersAreWokenOnPriceChange() throws Exception {
+        WatchableAuction auction = new WatchableAuction(new AuctionOptimistic(notifier));
+        WatchableAuction.VersionedBid initial = auction.getVersionedBid();
+
+        List<CompletableFuture<Bid>> waiters = new ArrayList<>();
+        for (int i = 0; i < waiterCount; i++) {
+            waiters.add(auction.nextBidAfter(initial.getVersion()));
+        }
+        assertTrue(waiters.stream().noneMatch(CompletableFuture::isDone));
+
+        assertFalse(auction.propose(new Bid(1L, 1L, 0L)));
+        assertTrue(waiters.stream().noneMatch(CompletableFuture::isDone));
+
+        waiters.get(0).cancel(true);
+        assertTrue(auction.propose(new Bid(2L, 2L, 10L)));
+        for (int i = 1; i < waiterCount; i++) {
+            assertEquals(10L, waiters.get(i).get(1, TimeUnit.SECONDS).getPrice());
+        }
+        assertEquals(10L, auction.nextBidAfter(initial.getVersion()).getNow(null).getPrice());
+        assertFalse(auction.nextBidAfter(auction.getVersionedBid().getVersion()).isDone());
+    }
+
+    @Test
+    public void testSlowWaitersDoNotDelayBidders() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        WatchableAuction auction = new WatchableAuction(new AuctionOptimistic(notifier), executor);
+        CountDownLatch woken = new CountDownLatch(waiterCount);
+        for (int i = 0; i < waiterCount; i++) {
+            auction.nextBidAfter(0).thenRun(() -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {
+                }
+                woken.countDown();
+            });
+        }
+
+        // the waiters take more than a second, the bidder does not run any of them
+        long start = System.currentTimeMillis();
+        assertTrue(auction.propose(new Bid(1L, 1L, 10L)));
+        long end = System.currentTimeMillis();
+
+        assertTrue(end - start < 100, "Bidder was delayed by the waiters: " + (end - start));
+        assertTrue(woken.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testWatcherObservesAllChanges() throws Exception {
+        WatchableAuction auction = new WatchableAuction(new AuctionOptimistic(notifier));
+        long expectedPrice = (long) iterations * poolSize;
+
+        CompletableFuture<Long> watcher = CompletableFuture.supplyAsync(() -> {
+            WatchableAuction.VersionedBid current = auction.getVersionedBid();
+            while (current.getBid().getPrice() < expectedPrice) {
+                Bid next = auction.nextBidAfter(current.getVersion()).join();
+                assertTrue(next.getPrice() > current.getBid().getPrice());
+                current = auction.getVersionedBid();
+            }
+            return current.getBid().getPrice();
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        for (int t = 0; t < poolSize; t++) {
+            long offset = t + 1;
+            executor.submit(() -> {
+                for (long price = offset; price <= expectedPrice; price += poolSize) {
+                    auction.propose(new Bid(price, offset, price));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+
+        assertEquals(expectedPrice, watcher.get(5, TimeUnit.SECONDS));
+    }
+}
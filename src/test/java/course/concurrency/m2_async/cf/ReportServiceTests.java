@@ -1,14 +1,24 @@
 package course.concurrency.m2_async.cf;
 
+import course.concurrency.m2_async.cf.report.Others;
+import course.concurrency.m2_async.cf.report.ReportService;
 import course.concurrency.m2_async.cf.report.ReportServiceCF;
 import course.concurrency.m2_async.cf.report.ReportServiceExecutors;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.springframework.aop.scope.ScopedProxyUtils;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ReportServiceTests {
 
@@ -43,4 +53,23 @@ public class ReportServiceTests {
 
         System.out.println("Execution time: " + (end - start));
     }
+
+    @ParameterizedTest
+    @EnumSource(ReportService.ExecutionStrategy.class)
+    public void testEveryStrategy(ReportService.ExecutionStrategy strategy) {
+        ReportService service = new ReportService(strategy, 4, new LoadGenerator(LoadGenerator.Load.SLEEP, 100));
+        try {
+            long start = System.currentTimeMillis();
+            List<CompletableFuture<Others.Report>> reports = IntStream.range(0, 4)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(service::getReport))
+                    .collect(toList());
+            reports.forEach(report -> assertTrue(!report.join().isEmpty()));
+            long end = System.currentTimeMillis();
+
+            // a report takes 200 millis when its tasks run in parallel, the pool fits 2 reports at a time
+            assertTrue(end - start < 1500, strategy + " executed too long: " + (end - start));
+        } finally {
+            service.shutdown();
+        }
+    }
 }
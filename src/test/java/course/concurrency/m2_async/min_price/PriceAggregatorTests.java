@@ -1,28 +1,47 @@
 package course.concurrency.m2_async.min_price;
 
+import course.concurrency.m2_async.cf.min_price.LatencyDistribution;
 import course.concurrency.m2_async.cf.min_price.PriceAggregator;
+import course.concurrency.m2_async.cf.min_price.PriceCache;
 import course.concurrency.m2_async.cf.min_price.PriceRetriever;
+import course.concurrency.m2_async.cf.min_price.ResultPolicy;
+import course.concurrency.m2_async.cf.min_price.SimulatedAsyncPriceRetriever;
+import course.concurrency.m2_async.cf.min_price.VirtualScheduler;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 public class PriceAggregatorTests {
 
@@ -38,6 +57,11 @@ public class PriceAggregatorTests {
         randomItemId = ThreadLocalRandom.current().nextLong();
     }
 
+    @AfterEach
+    public void tearDown() {
+        priceAggregator.shutdown();
+    }
+
     @Test
     @DisplayName("Every shop responds")
     public void shouldReturnMin() {
@@ -222,6 +246,630 @@ public class PriceAggregatorTests {
         assertExecutionTime(start, end);
     }
 
+    @Test
+    @DisplayName("Shop calls above the executor capacity are rejected")
+    public void shouldRejectWhenSaturated() {
+        priceAggregator.shutdown();
+        priceAggregator = new PriceAggregator(1, 1);
+
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            Thread.sleep(100);
+            return 10d + inv.<Long>getArgument(1);
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(List.of(0L, 1L, 2L, 3L, 4L));
+
+        long start = System.currentTimeMillis();
+        double min = priceAggregator.getMinPrice(randomItemId);
+        long end = System.currentTimeMillis();
+
+        // the first call occupies the only thread, the second one waits in the queue
+        assertEquals(10d, min, "Minimal price is evaluated incorrectly");
+        assertEquals(3, priceAggregator.getRejectedCalls());
+        assertEquals(0, priceAggregator.getInFlightCalls());
+        assertExecutionTime(start, end);
+    }
+
+    @Test
+    @DisplayName("First responses decide the price, the others are cancelled")
+    public void shouldReturnMinOfFirstResponses() {
+        int shopCount = 10;
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            long shopId = inv.getArgument(1);
+            if (shopId >= 2) {
+                Thread.sleep(SLA * 2);
+            }
+            return 10d + shopId;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(LongStream.range(0, shopCount).boxed().collect(toList()));
+
+        long start = System.currentTimeMillis();
+        double min = priceAggregator.getMinPrice(randomItemId, ResultPolicy.firstResponses(2));
+        long end = System.currentTimeMillis();
+
+        assertEquals(10d, min, "Minimal price is evaluated incorrectly");
+        assertTrue(end - start < SLA / 2, "Method executed too long: " + (end - start));
+        assertNoInFlightCalls();
+    }
+
+    @Test
+    @DisplayName("Price below the threshold decides the price")
+    public void shouldReturnPriceBelowThreshold() {
+        int shopCount = 10;
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            long shopId = inv.getArgument(1);
+            if (shopId == 5) {
+                return 1d;
+            }
+            Thread.sleep(SLA * 2);
+            return 0.5d;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(LongStream.range(0, shopCount).boxed().collect(toList()));
+
+        long start = System.currentTimeMillis();
+        double min = priceAggregator.getMinPrice(randomItemId, ResultPolicy.belowThreshold(2d));
+        long end = System.currentTimeMillis();
+
+        assertEquals(1d, min, "Minimal price is evaluated incorrectly");
+        assertTrue(end - start < SLA / 2, "Method executed too long: " + (end - start));
+        assertNoInFlightCalls();
+    }
+
+    @Test
+    @DisplayName("Slow call is hedged once the shop latency is known")
+    public void shouldHedgeSlowCall() {
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        AtomicBoolean isSlow = new AtomicBoolean(false);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            Thread.sleep(isSlow.getAndSet(false) ? SLA * 2 : 5);
+            return 10d;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(List.of(1L));
+
+        // not enough samples to evaluate p90 yet
+        for (int i = 0; i < 19; i++) {
+            priceAggregator.getMinPrice(randomItemId);
+        }
+        assertEquals(0, priceAggregator.getHedgesSent());
+        for (int i = 0; i < 20; i++) {
+            priceAggregator.getMinPrice(randomItemId);
+        }
+
+        long hedgesWon = priceAggregator.getHedgesWon();
+        isSlow.set(true);
+        long start = System.currentTimeMillis();
+        double min = priceAggregator.getMinPrice(randomItemId);
+        long end = System.currentTimeMillis();
+
+        assertEquals(10d, min, "Minimal price is evaluated incorrectly");
+        assertEquals(hedgesWon + 1, priceAggregator.getHedgesWon());
+        assertTrue(end - start < SLA / 2, "Method executed too long: " + (end - start));
+        assertNoInFlightCalls();
+    }
+
+    @Test
+    @DisplayName("Shop timeout follows the shop latency")
+    public void shouldTimeoutByShopLatency() {
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        AtomicBoolean isSlow = new AtomicBoolean(false);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            long shopId = inv.getArgument(1);
+            Thread.sleep(shopId == 2 && isSlow.getAndSet(false) ? SLA * 2 : 5);
+            return 10d + shopId;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setMaxHedges(0);
+        priceAggregator.setShops(List.of(1L, 2L));
+        assertEquals(2950, priceAggregator.getShopTimeoutMillis(2));
+
+        for (int i = 0; i < 20; i++) {
+            priceAggregator.getMinPrice(randomItemId);
+        }
+        assertTrue(priceAggregator.getShopTimeoutMillis(2) < SLA / 10);
+
+        isSlow.set(true);
+        long start = System.currentTimeMillis();
+        double min = priceAggregator.getMinPrice(randomItemId);
+        long end = System.currentTimeMillis();
+
+        assertEquals(11d, min, "Minimal price is evaluated incorrectly");
+        assertEquals(1, priceAggregator.getTimedOutCalls());
+        assertTrue(end - start < SLA / 2, "Method executed too long: " + (end - start));
+    }
+
+    @Test
+    @DisplayName("Failing shop is skipped until the probe call succeeds")
+    public void shouldSkipFailingShop() throws InterruptedException {
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        AtomicBoolean isFailing = new AtomicBoolean(true);
+        AtomicInteger failingShopCalls = new AtomicInteger();
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            long shopId = inv.getArgument(1);
+            if (shopId == 1) {
+                failingShopCalls.incrementAndGet();
+                if (isFailing.get()) {
+                    throw new RuntimeException();
+                }
+            }
+            return 10d + shopId;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setBreakerOpenMillis(200);
+        priceAggregator.setShops(List.of(1L, 2L));
+
+        for (int i = 0; i < 40; i++) {
+            assertEquals(12d, priceAggregator.getMinPrice(randomItemId));
+        }
+        assertEquals(20, failingShopCalls.get());
+        assertEquals(20, priceAggregator.getSkippedCalls());
+
+        isFailing.set(false);
+        Thread.sleep(300);
+        // the probe call closes the breaker
+        assertEquals(11d, priceAggregator.getMinPrice(randomItemId));
+        assertEquals(11d, priceAggregator.getMinPrice(randomItemId));
+        assertEquals(22, failingShopCalls.get());
+    }
+
+    @Test
+    @DisplayName("Cached prices are answered without calling the shops and refreshed ahead")
+    public void shouldAnswerFromCache() throws InterruptedException {
+        int shopCount = 9;
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        AtomicInteger callCount = new AtomicInteger();
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            callCount.incrementAndGet();
+            Thread.sleep(100);
+            return 10d + inv.<Long>getArgument(1);
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setPriceCache(new PriceCache(1024, 10_000, 200, TimeUnit.MILLISECONDS));
+        priceAggregator.setShops(LongStream.range(0, shopCount).boxed().collect(toList()));
+
+        assertEquals(10d, priceAggregator.getMinPrice(randomItemId));
+        assertEquals(shopCount, callCount.get());
+
+        long start = System.currentTimeMillis();
+        double min = priceAggregator.getMinPrice(randomItemId);
+        long end = System.currentTimeMillis();
+        assertEquals(10d, min, "Minimal price is evaluated incorrectly");
+        assertEquals(shopCount, callCount.get());
+        assertTrue(end - start < 50, "Method executed too long: " + (end - start));
+
+        // stale prices are still answered, each of them is refreshed once in background
+        Thread.sleep(250);
+        assertEquals(10d, priceAggregator.getMinPrice(randomItemId));
+        assertEquals(10d, priceAggregator.getMinPrice(randomItemId));
+        assertEquals(shopCount, priceAggregator.getRefreshCalls());
+        assertNoInFlightCalls();
+        assertEquals(2 * shopCount, callCount.get());
+    }
+
+    @Test
+    @DisplayName("Concurrent requests for the same item share one fan-out")
+    public void shouldCoalesceConcurrentRequests() throws Exception {
+        int shopCount = 9;
+        int requestCount = 100;
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        AtomicInteger callCount = new AtomicInteger();
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            callCount.incrementAndGet();
+            Thread.sleep(500);
+            return 10d + inv.<Long>getArgument(1);
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(LongStream.range(0, shopCount).boxed().collect(toList()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(requestCount);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Future<Double>> results = new ArrayList<>();
+        for (int i = 0; i < requestCount; i++) {
+            results.add(executor.submit(() -> {
+                latch.await();
+                return priceAggregator.getMinPrice(randomItemId);
+            }));
+        }
+        latch.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(SLA, TimeUnit.MILLISECONDS));
+
+        for (Future<Double> result : results) {
+            assertEquals(10d, result.get());
+        }
+        assertEquals(shopCount, callCount.get());
+        assertEquals(requestCount - 1, priceAggregator.getCoalescedRequests());
+
+        // the next request after completion gets a fresh fan-out
+        assertEquals(10d, priceAggregator.getMinPrice(randomItemId));
+        assertEquals(2 * shopCount, callCount.get());
+    }
+
+    @Test
+    @DisplayName("Shared fan-out is cancelled only when every caller has cancelled")
+    public void shouldCancelSharedFanOutWithLastCaller() throws Exception {
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        AtomicInteger answered = new AtomicInteger();
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            Thread.sleep(500);
+            answered.incrementAndGet();
+            return 10d;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(List.of(1L, 2L));
+
+        CompletableFuture<Double> first = priceAggregator.getMinPriceAsync(randomItemId, ResultPolicy.allOrDeadline());
+        CompletableFuture<Double> second = priceAggregator.getMinPriceAsync(randomItemId, ResultPolicy.allOrDeadline());
+        first.cancel(false);
+        assertEquals(10d, second.get(SLA, TimeUnit.MILLISECONDS));
+        assertEquals(2, answered.get());
+
+        CompletableFuture<Double> third = priceAggregator.getMinPriceAsync(randomItemId, ResultPolicy.allOrDeadline());
+        CompletableFuture<Double> fourth = priceAggregator.getMinPriceAsync(randomItemId, ResultPolicy.allOrDeadline());
+        third.cancel(false);
+        fourth.cancel(false);
+        Thread.sleep(700);
+        assertEquals(2, answered.get());
+        assertEquals(2, priceAggregator.getCancelledCalls());
+
+        // the cancelled fan-out is not joined by the next request
+        assertEquals(10d, priceAggregator.getMinPrice(randomItemId));
+    }
+
+    @Test
+    @DisplayName("Batch of items is sent to every shop once")
+    public void shouldReturnMinPricesOfBatch() {
+        int shopCount = 10;
+        long[] itemIds = LongStream.range(0, 200).toArray();
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrices(any(long[].class), anyLong())).thenAnswer(inv -> {
+            long[] items = inv.getArgument(0);
+            long shopId = inv.getArgument(1);
+            if (shopId == 0) {
+                Thread.sleep(SLA * 2);
+            } else if (shopId == 1) {
+                throw new RuntimeException();
+            }
+            // shop sells only the items divisible by its id, its prices are lower than the ones of previous shops
+            double[] prices = new double[items.length];
+            for (int i = 0; i < items.length; i++) {
+                prices[i] = items[i] % shopId == 0 ? 100d - shopId : Double.NaN;
+            }
+            return prices;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(LongStream.range(0, shopCount).boxed().collect(toList()));
+
+        long start = System.currentTimeMillis();
+        double[] minPrices = priceAggregator.getMinPrices(itemIds);
+        long end = System.currentTimeMillis();
+
+        for (int i = 0; i < itemIds.length; i++) {
+            long itemId = itemIds[i];
+            long shopId = LongStream.range(2, shopCount).filter(id -> itemId % id == 0).max().orElse(-1);
+            double expected = shopId < 0 ? Double.NaN : 100d - shopId;
+            assertEquals(expected, minPrices[i], "Minimal price is evaluated incorrectly for item " + itemId);
+        }
+        verify(priceRetriever, times(shopCount)).getPrices(any(long[].class), anyLong());
+        verify(priceRetriever, never()).getPrice(anyLong(), anyLong());
+        assertEquals(1, priceAggregator.getTimedOutCalls());
+        assertExecutionTime(start, end);
+    }
+
+    @Test
+    @DisplayName("Asynchronous shop calls do not occupy the executor threads")
+    public void shouldKeepAsyncCallsInFlight() {
+        int requestCount = 2000;
+        priceAggregator.shutdown();
+        priceAggregator = new PriceAggregator(2, 16);
+        // the shops answer any number of calls at once
+        priceAggregator.setMaxShopConcurrency(0);
+        Executor delayedExecutor = CompletableFuture.delayedExecutor(SLA / 10, TimeUnit.MILLISECONDS);
+        priceAggregator.setAsyncPriceRetriever((itemId, shopId) ->
+                CompletableFuture.supplyAsync(() -> 10d + shopId, delayedExecutor));
+        priceAggregator.setShops(List.of(1L, 2L, 3L));
+
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Double>> results = LongStream.range(0, requestCount)
+                .mapToObj(i -> priceAggregator.getMinPriceAsync(randomItemId + i, ResultPolicy.allOrDeadline()))
+                .collect(toList());
+        int maxInFlightCalls = priceAggregator.getInFlightCalls();
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        long end = System.currentTimeMillis();
+
+        assertTrue(maxInFlightCalls > 2 * 16, "Too few calls in flight: " + maxInFlightCalls);
+        assertTrue(results.stream().map(CompletableFuture::join).allMatch(price -> price == 11d));
+        assertEquals(0, priceAggregator.getRejectedCalls());
+        assertEquals(0, priceAggregator.getInFlightCalls());
+        assertExecutionTime(start, end);
+    }
+
+    @Test
+    @DisplayName("Simulated asynchronous shop calls are completed by one scheduler thread")
+    public void shouldCompleteSimulatedAsyncCalls() {
+        SimulatedAsyncPriceRetriever retriever = new SimulatedAsyncPriceRetriever(SLA / 10);
+        List<CompletableFuture<Double>> prices = LongStream.range(0, 10_000)
+                .mapToObj(shopId -> retriever.getPriceAsync(randomItemId, shopId))
+                .collect(toList());
+        prices.get(0).cancel(false);
+
+        long start = System.currentTimeMillis();
+        CompletableFuture.allOf(prices.subList(1, prices.size()).toArray(CompletableFuture[]::new)).join();
+        long end = System.currentTimeMillis();
+        retriever.shutdown();
+
+        assertTrue(prices.stream().skip(1).map(CompletableFuture::join).allMatch(price -> price >= 0 && price < 1000));
+        assertExecutionTime(start, end);
+    }
+
+    @Test
+    @DisplayName("Improving prices are published as the shops answer")
+    public void shouldPublishImprovingPrices() throws InterruptedException {
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            long shopId = inv.getArgument(1);
+            Thread.sleep(shopId * 200);
+            return 100d - shopId * 10;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(List.of(1L, 2L, 3L));
+
+        List<Double> prices = new CopyOnWriteArrayList<>();
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        priceAggregator.getMinPricePublisher(randomItemId).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Double price) {
+                prices.add(price);
+                arrivals.add(System.currentTimeMillis() - start);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        assertTrue(completed.await(SLA, TimeUnit.MILLISECONDS));
+        // the final price is published after the improvements
+        assertEquals(List.of(90d, 80d, 70d, 70d), prices);
+        assertTrue(arrivals.get(0) < 400, "First price published too late: " + arrivals.get(0));
+    }
+
+    @Test
+    @DisplayName("Prices answered concurrently are published in decreasing order")
+    public void shouldPublishDecreasingPricesConcurrently() throws InterruptedException {
+        int shopCount = 50;
+        priceAggregator.shutdown();
+        priceAggregator = new PriceAggregator(shopCount, 100);
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrice(anyLong(), anyLong()))
+                .thenAnswer(inv -> ThreadLocalRandom.current().nextDouble(1000));
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(LongStream.range(0, shopCount).boxed().collect(toList()));
+
+        for (int i = 0; i < 100; i++) {
+            List<Double> prices = new CopyOnWriteArrayList<>();
+            CountDownLatch completed = new CountDownLatch(1);
+            priceAggregator.getMinPricePublisher(randomItemId + i).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(Double price) {
+                    prices.add(price);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+
+            assertTrue(completed.await(SLA, TimeUnit.MILLISECONDS));
+            // only the final price may repeat the last improvement
+            for (int j = 1; j < prices.size(); j++) {
+                double previous = prices.get(j - 1);
+                double current = prices.get(j);
+                assertTrue(j == prices.size() - 1 ? current <= previous : current < previous,
+                        "Prices published out of order: " + prices);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Prices are conflated while the subscriber has no demand")
+    public void shouldConflatePricesWithoutDemand() throws InterruptedException {
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            long shopId = inv.getArgument(1);
+            Thread.sleep(shopId * 50);
+            return 100d - shopId * 10;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(List.of(1L, 2L, 3L, 4L));
+
+        List<Double> prices = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicReference<Flow.Subscription> subscriptionRef = new AtomicReference<>();
+        priceAggregator.getMinPricePublisher(randomItemId).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriptionRef.set(subscription);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Double price) {
+                prices.add(price);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        Thread.sleep(500);
+        assertEquals(List.of(90d), prices);
+        subscriptionRef.get().request(10);
+        assertTrue(completed.await(SLA, TimeUnit.MILLISECONDS));
+        assertEquals(List.of(90d, 60d), prices);
+    }
+
+    @Test
+    @DisplayName("Slow shop cannot occupy all the threads")
+    public void shouldLimitCallsToSlowShop() throws InterruptedException {
+        long slowShop = 1;
+        long healthyShop = 2;
+        int limit = 4;
+        priceAggregator.shutdown();
+        priceAggregator = new PriceAggregator(2 * limit, 100);
+        priceAggregator.setMaxShopConcurrency(limit);
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            long shopId = inv.getArgument(1);
+            Thread.sleep(shopId == slowShop ? 2000 : 5);
+            return 10d + shopId;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setShops(List.of(slowShop, healthyShop));
+
+        List<CompletableFuture<Double>> slowRequests = LongStream.range(0, limit)
+                .mapToObj(i -> priceAggregator.getMinPriceAsync(randomItemId + i, ResultPolicy.allOrDeadline()))
+                .collect(toList());
+        // the healthy shop has answered these requests, only the slow shop calls are in flight
+        Thread.sleep(200);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(10d + healthyShop, priceAggregator.getMinPrice(randomItemId + limit + i));
+        }
+        long end = System.currentTimeMillis();
+
+        assertTrue(end - start < 1000, "Healthy shop answered too long: " + (end - start));
+        assertEquals(20, priceAggregator.getBulkheadRejections(slowShop));
+        assertEquals(0, priceAggregator.getBulkheadRejections(healthyShop));
+        slowRequests.forEach(request -> assertEquals(10d + slowShop, request.join()));
+    }
+
+    @Test
+    @DisplayName("Concurrency limit of a failing shop shrinks")
+    public void shouldShrinkLimitOfFailingShop() {
+        PriceRetriever priceRetriever = mock(PriceRetriever.class);
+        AtomicBoolean isFailing = new AtomicBoolean(true);
+        when(priceRetriever.getPrice(anyLong(), anyLong())).thenAnswer(inv -> {
+            if (isFailing.get()) {
+                throw new RuntimeException();
+            }
+            return 10d;
+        });
+        priceAggregator.setPriceRetriever(priceRetriever);
+        priceAggregator.setMaxShopConcurrency(16);
+        priceAggregator.setShops(List.of(1L));
+
+        for (int i = 0; i < 10; i++) {
+            priceAggregator.getMinPrice(randomItemId);
+        }
+        assertEquals(2, priceAggregator.getShopConcurrencyLimit(1L));
+
+        // the limit grows by one per limit of successful calls
+        isFailing.set(false);
+        for (int i = 0; i < 7; i++) {
+            priceAggregator.getMinPrice(randomItemId);
+        }
+        assertEquals(4, priceAggregator.getShopConcurrencyLimit(1L));
+    }
+
+    @Test
+    @DisplayName("Simulation of thousands of shops in virtual time is reproducible")
+    public void shouldReplaySimulationInVirtualTime() {
+        long start = System.currentTimeMillis();
+        double[] firstRun = simulate(42, 2000, 20);
+        double[] secondRun = simulate(42, 2000, 20);
+        long end = System.currentTimeMillis();
+
+        assertExecutionTime(start, end);
+        assertArrayEquals(firstRun, secondRun);
+        assertTrue(Arrays.stream(firstRun).noneMatch(Double::isNaN));
+        assertTrue(!Arrays.equals(firstRun, simulate(43, 2000, 20)));
+    }
+
+    /**
+     * Requests an item every 10 virtual millis from the shops, every tenth of them is slow and heavy-tailed
+     *
+     * @return prices concatenated with the virtual execution times of the requests
+     */
+    private double[] simulate(long seed, int shopCount, int itemCount) {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        PriceAggregator aggregator = new PriceAggregator(executor, scheduler);
+        aggregator.setShops(LongStream.range(0, shopCount).boxed().collect(toList()));
+        aggregator.setAsyncPriceRetriever(new SimulatedAsyncPriceRetriever(scheduler, shopId -> shopId % 10 == 0
+                ? LatencyDistribution.logNormal(500, 1)
+                : LatencyDistribution.logNormal(50, 0.5), seed));
+
+        double[] results = new double[itemCount * 2];
+        // a request which has not completed fails the execution time check
+        Arrays.fill(results, Double.NaN);
+        for (int i = 0; i < itemCount; i++) {
+            int item = i;
+            scheduler.schedule(() -> {
+                long requestStart = scheduler.nanoTime();
+                aggregator.getMinPriceAsync(item, ResultPolicy.allOrDeadline()).thenAccept(price -> {
+                    results[item] = price;
+                    results[itemCount + item] = scheduler.nanoTime() - requestStart;
+                });
+            }, 10L * i, TimeUnit.MILLISECONDS);
+        }
+        scheduler.runUntilIdle();
+        aggregator.shutdown();
+
+        for (int i = 0; i < itemCount; i++) {
+            assertTrue(results[itemCount + i] <= TimeUnit.MILLISECONDS.toNanos(SLA),
+                    "Request executed too long: " + results[itemCount + i]);
+        }
+        assertEquals(0, aggregator.getInFlightCalls());
+        assertTrue(aggregator.getTimedOutCalls() > 0);
+        return results;
+    }
+
+    /**
+     * Cancelled calls are interrupted and release their threads long before the slow shops answer
+     */
+    private void assertNoInFlightCalls() {
+        long deadline = System.currentTimeMillis() + SLA / 2;
+        while (priceAggregator.getInFlightCalls() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(0, priceAggregator.getInFlightCalls());
+    }
+
     private void assertExecutionTime(long start, long end) {
         long executionTime = end - start;
         assertTrue(executionTime < SLA, "Method executed too long: " + executionTime);
@@ -0,0 +1,89 @@
+package course.concurrency.m2_async.min_price;
+
+import course.concurrency.m2_async.cf.min_price.PriceCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PriceCacheTests {
+
+    @Test
+    public void testPutGet() {
+        PriceCache cache = new PriceCache(1024, 1, 1, TimeUnit.MINUTES);
+
+        for (long itemId = 0; itemId < 100; itemId++) {
+            for (long shopId = 0; shopId < 5; shopId++) {
+                cache.put(itemId, shopId, itemId * 10 + shopId);
+            }
+        }
+        assertEquals(123d, cache.get(12L, 3L));
+        assertEquals(0d, cache.get(0L, 0L));
+        assertTrue(Double.isNaN(cache.get(12L, 5L)));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.put(12L, 3L, 1d);
+        assertEquals(1d, cache.get(12L, 3L));
+    }
+
+    @Test
+    public void testExpiration() throws InterruptedException {
+        PriceCache cache = new PriceCache(16, 50, 50, TimeUnit.MILLISECONDS);
+
+        cache.put(1L, 1L, 10d);
+        assertEquals(10d, cache.get(1L, 1L));
+        Thread.sleep(60);
+        assertTrue(Double.isNaN(cache.get(1L, 1L)));
+    }
+
+    @Test
+    public void testExpirationByInjectedClock() {
+        AtomicLong now = new AtomicLong();
+        PriceCache cache = new PriceCache(16, 50, 20, TimeUnit.MILLISECONDS, now::get);
+
+        cache.put(1L, 1L, 10d);
+        now.set(TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(10d, cache.get(1L, 1L));
+        assertTrue(cache.tryStartRefresh(1L, 1L));
+        now.set(TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(Double.isNaN(cache.get(1L, 1L)));
+    }
+
+    @Test
+    public void testEvictOldest() {
+        // a single set of 8 entries
+        PriceCache cache = new PriceCache(8, 1, 1, TimeUnit.MINUTES);
+
+        for (long itemId = 0; itemId < 9; itemId++) {
+            cache.put(itemId, 1L, itemId);
+        }
+        assertTrue(Double.isNaN(cache.get(0L, 1L)));
+        for (long itemId = 1; itemId < 9; itemId++) {
+            assertEquals(itemId, cache.get(itemId, 1L));
+        }
+    }
+
+    @Test
+    public void testSingleRefresh() throws InterruptedException {
+        PriceCache cache = new PriceCache(16, 1000, 20, TimeUnit.MILLISECONDS);
+
+        cache.put(1L, 1L, 10d);
+        assertFalse(cache.tryStartRefresh(1L, 1L));
+        assertFalse(cache.tryStartRefresh(2L, 1L));
+        Thread.sleep(30);
+
+        assertTrue(cache.tryStartRefresh(1L, 1L));
+        assertFalse(cache.tryStartRefresh(1L, 1L));
+        // the stale price is returned while it is refreshed
+        assertEquals(10d, cache.get(1L, 1L));
+
+        cache.cancelRefresh(1L, 1L);
+        assertTrue(cache.tryStartRefresh(1L, 1L));
+        cache.put(1L, 1L, 20d);
+        assertFalse(cache.tryStartRefresh(1L, 1L));
+        assertEquals(20d, cache.get(1L, 1L));
+    }
+}